@@ -0,0 +1,84 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeNameSetBenchmark
+{
+	@Param({ "100", "1000", "5000" })
+	public int size;
+
+	private List<String> names;
+	private NodeNameSet set;
+
+	@Setup
+	public void setup()
+	{
+		names = new ArrayList<>();
+
+		for (int i = 0; i < size; ++i)
+		{
+			names.add("node-" + i + ".cluster.example.org");
+		}
+
+		set = new NodeNameSet(names);
+	}
+
+	@Benchmark
+	public NodeNameSet construction()
+	{
+		return new NodeNameSet(names);
+	}
+
+	@Benchmark
+	public NodeNameSet sequentialSubset()
+	{
+		return set.subset(size / 2, null);
+	}
+
+	@Benchmark
+	public NodeNameSet randomSubset()
+	{
+		// fixed seed, for reproducibility
+		return set.subset(size / 2, new Random(0));
+	}
+}
@@ -0,0 +1,113 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link NodeSet} operations, which rely on {@link HardwareNode#equals} and
+ * {@link HardwareNode#compareTo}. Addresses are built without DNS lookups, so
+ * that the results do not depend on the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeSetBenchmark
+{
+	@Param({ "100", "1000", "5000" })
+	public int size;
+
+	private List<SSHNode> nodes;
+	private NodeSet<SSHNode> set;
+
+	static List<SSHNode> createNodes(int n) throws UnknownHostException
+	{
+		List<SSHNode> nodes = new ArrayList<>();
+
+		for (int i = 0; i < n; ++i)
+		{
+			byte[] ip = { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+			nodes.add(new SSHNode(InetAddress.getByAddress("node-" + i, ip)));
+		}
+
+		return nodes;
+	}
+
+	@Setup
+	public void setup() throws UnknownHostException
+	{
+		nodes = createNodes(size);
+		set = new NodeSet<>();
+		set.addAll(nodes);
+	}
+
+	@Benchmark
+	public NodeSet<SSHNode> add()
+	{
+		NodeSet<SSHNode> s = new NodeSet<>();
+
+		for (SSHNode n : nodes)
+		{
+			s.add(n);
+		}
+
+		return s;
+	}
+
+	@Benchmark
+	public void contains(Blackhole bh)
+	{
+		for (SSHNode n : nodes)
+		{
+			bh.consume(set.contains(n));
+		}
+	}
+
+	@Benchmark
+	public List<SSHNode> sort()
+	{
+		List<SSHNode> l = new ArrayList<>(nodes);
+		Collections.shuffle(l, new Random(0));
+		Collections.sort(l);
+		return l;
+	}
+}
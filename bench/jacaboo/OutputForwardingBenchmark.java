@@ -0,0 +1,76 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import toools.text.LineStreamListener;
+
+/**
+ * Time needed by {@link SSHNode} to forward the output of a local process,
+ * line by line, to its listeners. The process is "seq", so that the
+ * measurement is dominated by the forwarding, not by the producer.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputForwardingBenchmark
+{
+	@Param({ "100000", "1000000" })
+	public int lines;
+
+	@Benchmark
+	public void forward() throws Exception
+	{
+		SSHNode node = new SSHNode(InetAddress.getLoopbackAddress());
+		node.getStdoutLinesListeners().clear();
+		node.getStderrLinesListeners().clear();
+		final CountDownLatch latch = new CountDownLatch(lines);
+
+		node.getStdoutLinesListeners().add(new LineStreamListener()
+		{
+			@Override
+			public void newLine(String line)
+			{
+				latch.countDown();
+			}
+		});
+
+		node.exec(Arrays.asList("seq", "1", String.valueOf(lines)));
+		latch.await();
+	}
+}
@@ -0,0 +1,44 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSHOptionsBenchmark
+{
+	@Benchmark
+	public String getSSHOptionsString()
+	{
+		return SSHUtils.getSSHOptionsString(15);
+	}
+}
@@ -0,0 +1,176 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips of a {@link NodeSet} through its Externalizable methods, as
+ * when the set of nodes is shipped to the remote applications. The size of
+ * the serialized form is printed once at setup.
+ * 
+ * The "legacy" format is the one used before {@link NodeCodec}: every node
+ * written with writeObject(), and its address as a serialized InetAddress.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark
+{
+	@Param({ "100", "1000", "5000" })
+	public int size;
+
+	@Param({ "compact", "legacy" })
+	public String format;
+
+	private Object set;
+	private byte[] serialized;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		NodeSet<SSHNode> nodes = new NodeSet<>();
+		nodes.addAll(NodeSetBenchmark.createNodes(size));
+		set = format.equals("legacy") ? new LegacyNodeSet(nodes) : nodes;
+		serialized = serialize();
+		System.out.println(size + " nodes, " + format + " => " + serialized.length
+				+ " bytes");
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bos);
+		os.writeObject(set);
+		os.close();
+		return bos.toByteArray();
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream is = new ObjectInputStream(
+				new ByteArrayInputStream(serialized));
+		return is.readObject();
+	}
+
+	public static class LegacyNodeSet implements Externalizable
+	{
+		static final long serialVersionUID = 0L;
+
+		private final List<LegacyNode> nodes = new ArrayList<>();
+
+		public LegacyNodeSet()
+		{
+		}
+
+		LegacyNodeSet(Collection<SSHNode> nodes)
+		{
+			for (SSHNode n : nodes)
+			{
+				this.nodes.add(new LegacyNode(n));
+			}
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException
+		{
+			out.writeInt(nodes.size());
+
+			for (LegacyNode n : nodes)
+			{
+				out.writeObject(n);
+			}
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+		{
+			int size = in.readInt();
+
+			for (int i = 0; i < size; ++i)
+			{
+				nodes.add((LegacyNode) in.readObject());
+			}
+		}
+	}
+
+	public static class LegacyNode implements Externalizable
+	{
+		static final long serialVersionUID = 0L;
+
+		private InetAddress ipAddress;
+		private String loginName;
+
+		public LegacyNode()
+		{
+		}
+
+		LegacyNode(SSHNode n)
+		{
+			this.ipAddress = n.getInetAddress();
+			this.loginName = n.getLoginName();
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException
+		{
+			out.writeObject(ipAddress);
+			out.writeBoolean(false);
+			out.writeUTF(loginName);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+		{
+			ipAddress = (InetAddress) in.readObject();
+			in.readBoolean();
+			loginName = in.readUTF();
+		}
+	}
+}
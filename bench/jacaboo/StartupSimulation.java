@@ -0,0 +1,184 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the startup of a {@link JavaCluster} of thousands of nodes on a
+ * single computer. The ssh and rsync commands are replaced (through the
+ * {@value SSHUtils#sshCommandNameProperty} and
+ * {@value NASCluster#rsyncCommandNameProperty} properties) by scripts which:
+ * <ul>
+ * <li>add a configurable latency to every connection;
+ * <li>fail a configurable ratio of the connections;
+ * <li>limit the bandwidth of the transfers;
+ * <li>run the commands locally, in a directory which acts as the home
+ * directory of the node. Nodes of the same NAS group share it.
+ * </ul>
+ * The Java command is a script which prints the startup marker and waits for
+ * its stdin to close, so that no real JVM is started on the nodes.
+ * 
+ * Nodes have addresses in the 198.18.0.0/15 range (reserved for
+ * benchmarking) and no DNS lookup is done.
+ * 
+ * Usage: StartupSimulation [nodes] [nodes per NAS group] [latency ms]
+ * [failure per thousand] [bandwidth KB/s] [pipelined]
+ */
+public class StartupSimulation
+{
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int nbNodes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int groupSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int latencyMs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int failurePerThousand = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		int bandwidthKBps = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+		boolean pipelined = args.length > 5 && Boolean.parseBoolean(args[5]);
+
+		File root = Files.createTempDirectory("jacaboo-simulation").toFile();
+		System.out.println("Simulating " + nbNodes + " nodes in " + root);
+		createScripts(root, groupSize, latencyMs, failurePerThousand, bandwidthKBps);
+		System.setProperty(SSHUtils.sshCommandNameProperty,
+				new File(root, "bin/ssh").getPath());
+		System.setProperty(NASCluster.rsyncCommandNameProperty,
+				new File(root, "bin/rsync").getPath());
+
+		NodeSet<JavaNode> nodes = new NodeSet<>();
+
+		for (int i = 0; i < nbNodes; ++i)
+		{
+			byte[] ip = { (byte) 198, (byte) (18 + (i >> 16)), (byte) (i >> 8), (byte) i };
+			JavaNode n = new JavaNode(InetAddress.getByAddress("sim-node-" + i, ip));
+
+			// the output of thousands of nodes would be the bottleneck
+			n.getStdoutLinesListeners().clear();
+			n.getStderrLinesListeners().clear();
+			nodes.add(n);
+		}
+
+		JavaCluster<JavaNode> cluster = new JavaCluster<JavaNode>(null, nodes)
+		{
+			@Override
+			public Class<? extends RemoteMain> getMainClass(JavaNode n)
+			{
+				return SimulatedMain.class;
+			}
+		};
+
+		cluster.setPipelinedStartup(pipelined);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+		String outcome = "success";
+
+		try
+		{
+			ClusterStartup<JavaNode> startup = cluster.startAsync();
+			Set<JavaNode> started = startup.getAll().join();
+			outcome = started.size() + "/" + nbNodes + " nodes started";
+		}
+		catch (Throwable t)
+		{
+			outcome = "failure: " + t;
+		}
+
+		long durationMs = (System.nanoTime() - start) / 1000000;
+
+		System.out.println("Outcome: " + outcome);
+		System.out.println("Startup time: " + durationMs + "ms");
+		System.out.println("Threads: " + threads.getThreadCount() + " (peak "
+				+ threads.getPeakThreadCount() + ")");
+		System.out.println("Heap used: "
+				+ memory.getHeapMemoryUsage().getUsed() / 1000000 + "MB");
+		System.out.println(cluster.getStartupMetrics().toJSON());
+
+		cluster.stop();
+		System.exit(0);
+	}
+
+	private static void createScripts(File root, int groupSize, int latencyMs,
+			int failurePerThousand, int bandwidthKBps) throws IOException
+	{
+		File bin = new File(root, "bin");
+		File fakeJavaDir = new File(root, "fake-java");
+		bin.mkdirs();
+		fakeJavaDir.mkdirs();
+
+		// options are skipped, the first other argument is the node, the
+		// remaining ones the command to run in the home directory of the node
+		script(new File(bin, "ssh"), "#!/bin/bash\n"
+				+ "while [ \"${1:0:1}\" = - ]; do\n"
+				+ "  case \"$1\" in -o|-O|-p|-l|-i) shift 2;; *) shift;; esac\n"
+				+ "done\n"
+				+ "host=${1#*@}; shift\n"
+				+ "ms=$((" + latencyMs + " / 2 + RANDOM % (" + latencyMs + " + 1)))\n"
+				+ "sleep $((ms / 1000)).$(printf %03d $((ms % 1000)))\n"
+				+ "if [ $((RANDOM % 1000)) -lt " + failurePerThousand + " ]; then\n"
+				+ "  echo \"ssh: connect to host $host port 22: Connection refused\" >&2\n"
+				+ "  exit 255\n"
+				+ "fi\n"
+				+ "export HOME=" + root.getPath() + "/nas-$(( ${host##*-} / " + groupSize
+				+ " ))\n"
+				+ "mkdir -p $HOME && cd $HOME || exit 255\n"
+				+ "export PATH=" + fakeJavaDir.getPath() + ":$PATH\n"
+				+ "exec \"$@\"\n");
+
+		script(new File(bin, "rsync"), "#!/bin/sh\n" + "exec rsync --bwlimit="
+				+ bandwidthKBps + " \"$@\"\n");
+
+		script(new File(fakeJavaDir, "java"),
+				"#!/bin/sh\n" + "if [ \"$1\" = -version ]; then\n"
+						+ "  echo 'java version \"1.8.0_51\"' >&2\n" + "  exit 0\n"
+						+ "fi\n" + "echo '"
+						+ ControlProtocol.toLine(ControlProtocol.MAIN_STARTED, new byte[0])
+						+ "'\n"
+						+ "exec cat >/dev/null\n");
+	}
+
+	private static void script(File f, String text) throws IOException
+	{
+		Files.write(f.toPath(), text.getBytes());
+		f.setExecutable(true);
+	}
+
+	public static class SimulatedMain extends RemoteMain
+	{
+		@Override
+		protected void main(List<String> argList)
+		{
+		}
+
+		@Override
+		protected void stop()
+		{
+		}
+	}
+}
@@ -34,6 +34,7 @@ public class Binaries
 	private static String applicationName = Binaries.class.getPackage().getName();
 	private static Directory applicationDir;
 	private static Directory localBinariesDir;
+	private static Directory localBlobsDir;
 
 	public static String getApplicationName()
 	{
@@ -58,6 +59,30 @@ public class Binaries
 		return applicationName + "/" + getJarDirectoryName();
 	}
 
+	private final static String getBlobDirectoryName()
+	{
+		return "blobs";
+	}
+
+	final static String blobDirectoryPathRelativeToHomedir()
+	{
+		return applicationName + "/" + getBlobDirectoryName();
+	}
+
+	/**
+	 * Where class data sharing archives are stored. They cannot be in the jar
+	 * directory, whose content is the classpath.
+	 */
+	final static String cdsDirectoryPathRelativeToHomedir()
+	{
+		return applicationName + "/cds";
+	}
+
+	final static String manifestPathRelativeToHomedir()
+	{
+		return applicationName + "/classpath.manifest";
+	}
+
 	final static String jarDirectoryAbsolutePath()
 	{
 		return new Directory(localDir(), getJarDirectoryName()).getPath();
@@ -83,6 +108,30 @@ public class Binaries
 		return localBinariesDir;
 	}
 
+	/**
+	 * The content-addressed store where every classpath entry is available
+	 * under the name of its hash. See {@link ClassPathManifest}.
+	 */
+	final static Directory localBlobsDir()
+	{
+		if (localBlobsDir == null)
+		{
+			localBlobsDir = new Directory(localDir(), getBlobDirectoryName());
+		}
+
+		return localBlobsDir;
+	}
+
+	final static RegularFile localHashCacheFile()
+	{
+		return new RegularFile(localDir(), "hashes.cache");
+	}
+
+	final static RegularFile localJVMProbeCacheFile()
+	{
+		return new RegularFile(localDir(), "jvm.cache");
+	}
+
 	static void ensureLocalSymLinksToClassPathEntriesAreProperlySet()
 	{
 		@SuppressWarnings("hiding")
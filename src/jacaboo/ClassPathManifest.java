@@ -0,0 +1,473 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import toools.io.IORuntimeException;
+import toools.io.file.AbstractFile;
+import toools.io.file.RegularFile;
+import toools.reflect.ClassContainer;
+import toools.reflect.ClassPath;
+
+/**
+ * Content-addressed description of the classpath. Every classpath entry is
+ * identified by the SHA-1 of its content and is stored as a blob named after
+ * this hash in {@link Binaries#localBlobsDir()}. Jar files are copied there,
+ * directories are packed into a jar first.
+ *
+ * Hashes are cached on disk, keyed by path and modification stamp, so an
+ * unchanged entry is never read twice.
+ *
+ * The textual form of the manifest (one "hash name" line per entry) is stored
+ * on every NAS group and compared to the local one, so that only missing blobs
+ * need to be transferred.
+ *
+ * The blobs of the previous classpaths are deleted, here once the manifest is
+ * computed and on the nodes once the jar directory is rebuilt. The classpath
+ * of an application name is hence assumed to be deployed from one master at
+ * a time.
+ */
+public class ClassPathManifest
+{
+	public static class Entry
+	{
+		public final String name;
+		public final String hash;
+
+		Entry(String name, String hash)
+		{
+			this.name = name;
+			this.hash = hash;
+		}
+
+		public String getBlobName()
+		{
+			return hash + ".jar";
+		}
+
+		@Override
+		public String toString()
+		{
+			return hash + " " + name;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final Map<String, Entry> entriesBySource = new HashMap<>();
+
+	public List<Entry> getEntries()
+	{
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return the entry computed from the given classpath element, or null if
+	 *         this manifest was not computed locally
+	 */
+	public Entry getEntry(File classPathElement)
+	{
+		return entriesBySource.get(classPathElement.getAbsolutePath());
+	}
+
+	public Set<String> getBlobNames()
+	{
+		Set<String> r = new HashSet<>();
+
+		for (Entry e : entries)
+		{
+			r.add(e.getBlobName());
+		}
+
+		return r;
+	}
+
+	public String toText()
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (Entry e : entries)
+		{
+			b.append(e.toString());
+			b.append('\n');
+		}
+
+		return b.toString();
+	}
+
+	public static ClassPathManifest compute()
+	{
+		return compute(ClassPath.retrieveSystemClassPath());
+	}
+
+	public static synchronized ClassPathManifest compute(ClassPath classpath)
+	{
+		File blobDir = new File(Binaries.localBlobsDir().getPath());
+		blobDir.mkdirs();
+
+		RegularFile cacheFile = Binaries.localHashCacheFile();
+		Map<String, String> cache = loadCache(cacheFile);
+		Map<String, String> currentCache = new HashMap<>();
+		ClassPathManifest m = new ClassPathManifest();
+		Set<String> names = new HashSet<>();
+
+		for (ClassContainer e : classpath)
+		{
+			AbstractFile entryFile = e.getFile();
+			File f = new File(entryFile.getPath());
+
+			if ( ! f.exists())
+				continue;
+
+			try
+			{
+				String stamp = f.isDirectory() ? directoryStamp(f)
+						: f.length() + ":" + f.lastModified();
+				String cacheKey = f.getAbsolutePath() + "\t" + stamp;
+				String hash = cache.get(cacheKey);
+
+				// blobs used to be links to the classpath entries
+				if (hash == null || ! new File(blobDir, hash + ".jar").exists()
+						|| Files.isSymbolicLink(new File(blobDir, hash + ".jar").toPath()))
+				{
+					if (f.isDirectory())
+					{
+						File tmp = File.createTempFile("jacaboo-", ".jar", blobDir);
+						packDirectory(f, tmp);
+						hash = sha1(tmp);
+						File blob = new File(blobDir, hash + ".jar");
+
+						if (blob.exists())
+						{
+							tmp.delete();
+						}
+						else if ( ! tmp.renameTo(blob))
+						{
+							throw new IOException("cannot create blob " + blob);
+						}
+					}
+					else
+					{
+						// a copy, since the jar may be rebuilt in place, which
+						// would change the content behind the hash
+						File tmp = File.createTempFile("jacaboo-", ".jar", blobDir);
+						Files.copy(f.toPath(), tmp.toPath(),
+								StandardCopyOption.REPLACE_EXISTING);
+						hash = sha1(tmp);
+						File blob = new File(blobDir, hash + ".jar");
+						Files.move(tmp.toPath(), blob.toPath(),
+								StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE);
+					}
+				}
+
+				currentCache.put(cacheKey, hash);
+
+				String name = entryFile instanceof RegularFile ? entryFile.getName()
+						: entryFile.getPath().replace(File.separatorChar, '_') + ".jar";
+
+				// two jars with the same name in different directories
+				while ( ! names.add(name))
+				{
+					name = "_" + name;
+				}
+
+				Entry entry = new Entry(name, hash);
+				m.entries.add(entry);
+				m.entriesBySource.put(f.getAbsolutePath(), entry);
+			}
+			catch (IOException ex)
+			{
+				throw new IORuntimeException(ex);
+			}
+		}
+
+		// the entries of the previous versions of the classpath are dropped
+		saveCache(currentCache, cacheFile);
+		deleteBlobsNotIn(m, blobDir);
+		return m;
+	}
+
+	/**
+	 * @return whether the given file name is the one of a blob, as opposed to
+	 *         a blob being created
+	 */
+	static boolean isBlobName(String name)
+	{
+		return name.matches("[0-9a-f]{40}\\.jar");
+	}
+
+	private static void deleteBlobsNotIn(ClassPathManifest m, File blobDir)
+	{
+		Set<String> used = m.getBlobNames();
+		File[] blobs = blobDir.listFiles();
+
+		if (blobs != null)
+		{
+			for (File b : blobs)
+			{
+				if (isBlobName(b.getName()) && ! used.contains(b.getName()))
+				{
+					b.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses the textual form of a manifest, as obtained from a remote node.
+	 */
+	public static ClassPathManifest fromText(List<String> lines)
+	{
+		ClassPathManifest m = new ClassPathManifest();
+
+		for (String line : lines)
+		{
+			int i = line.indexOf(' ');
+
+			if (i > 0)
+			{
+				m.entries.add(new Entry(line.substring(i + 1), line.substring(0, i)));
+			}
+		}
+
+		return m;
+	}
+
+	/**
+	 * @return a hash of the whole classpath, which changes whenever an entry
+	 *         changes
+	 */
+	public String getHash()
+	{
+		return sha1(toText());
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return o instanceof ClassPathManifest
+				&& toText().equals(((ClassPathManifest) o).toText());
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return toText().hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return toText();
+	}
+
+	/*
+	 * The modification date of a directory does not change when one of its
+	 * files is modified, so the stamp summarizes the whole tree.
+	 */
+	private static String directoryStamp(File dir)
+	{
+		long[] s = new long[3];
+		stamp(dir, s);
+		return s[0] + ":" + s[1] + ":" + s[2];
+	}
+
+	private static void stamp(File f, long[] s)
+	{
+		if (f.isDirectory())
+		{
+			File[] children = f.listFiles();
+
+			if (children != null)
+			{
+				for (File c : children)
+				{
+					stamp(c, s);
+				}
+			}
+		}
+		else
+		{
+			s[0]++;
+			s[1] += f.length();
+			s[2] = Math.max(s[2], f.lastModified());
+		}
+	}
+
+	private static void packDirectory(File dir, File jar) throws IOException
+	{
+		try (JarOutputStream os = new JarOutputStream(
+				new BufferedOutputStream(new FileOutputStream(jar), 65536)))
+		{
+			pack(dir, "", os);
+		}
+	}
+
+	private static void pack(File dir, String prefix, JarOutputStream os)
+			throws IOException
+	{
+		File[] children = dir.listFiles();
+
+		if (children == null)
+			return;
+
+		// sorting and fixed timestamps make the jar depend only on the content
+		Arrays.sort(children);
+
+		for (File c : children)
+		{
+			String name = prefix + c.getName();
+
+			if (c.isDirectory())
+			{
+				ZipEntry ze = new ZipEntry(name + "/");
+				ze.setTime(0);
+				os.putNextEntry(ze);
+				os.closeEntry();
+				pack(c, name + "/", os);
+			}
+			else
+			{
+				ZipEntry ze = new ZipEntry(name);
+				ze.setTime(0);
+				os.putNextEntry(ze);
+				copy(c, os);
+				os.closeEntry();
+			}
+		}
+	}
+
+	private static void copy(File f, OutputStream os) throws IOException
+	{
+		try (InputStream is = new FileInputStream(f))
+		{
+			byte[] buf = new byte[65536];
+			int n;
+
+			while ((n = is.read(buf)) > 0)
+			{
+				os.write(buf, 0, n);
+			}
+		}
+	}
+
+	static String sha1(File f) throws IOException
+	{
+		try (InputStream is = new FileInputStream(f))
+		{
+			MessageDigest md = sha1();
+			byte[] buf = new byte[65536];
+			int n;
+
+			while ((n = is.read(buf)) > 0)
+			{
+				md.update(buf, 0, n);
+			}
+
+			return toHex(md.digest());
+		}
+	}
+
+	static String sha1(String s)
+	{
+		return toHex(sha1().digest(s.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static MessageDigest sha1()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] digest)
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (byte x : digest)
+		{
+			b.append(String.format("%02x", x));
+		}
+
+		return b.toString();
+	}
+
+	private static Map<String, String> loadCache(RegularFile f)
+	{
+		Map<String, String> cache = new HashMap<>();
+
+		if (f.exists())
+		{
+			for (String line : new String(f.getContent()).split("\n"))
+			{
+				int i = line.lastIndexOf('\t');
+
+				if (i > 0)
+				{
+					cache.put(line.substring(0, i), line.substring(i + 1));
+				}
+			}
+		}
+
+		return cache;
+	}
+
+	private static void saveCache(Map<String, String> cache, RegularFile f)
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (Map.Entry<String, String> e : cache.entrySet())
+		{
+			b.append(e.getKey());
+			b.append('\t');
+			b.append(e.getValue());
+			b.append('\n');
+		}
+
+		f.setContent(b.toString().getBytes());
+	}
+}
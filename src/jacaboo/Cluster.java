@@ -19,14 +19,29 @@
 
 package jacaboo;
 
+import java.io.File;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-
-import toools.thread.OneElementOneThreadProcessing;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class Cluster<N extends SSHNode>
 {
+	public interface NodeLifecycleListener<N>
+	{
+		/**
+		 * Called once the node is removed from the cluster.
+		 */
+		void nodeDiscarded(N node, Throwable reason);
+	}
+
 	private final NodeSet<N> nodes = new NodeSet<N>();
+	private final List<NodeLifecycleListener<N>> lifecycleListeners =
+			new CopyOnWriteArrayList<>();
+	private FanOut fanOut = new FanOut();
+	private final StartupMetrics startupMetrics = new StartupMetrics();
 
 	protected Cluster(Set<N> nodeSet)
 	{
@@ -38,6 +53,35 @@ public class Cluster<N extends SSHNode>
 		return Collections.unmodifiableSet(nodes);
 	}
 
+	/**
+	 * The executor used by all the per-node phases of this cluster.
+	 */
+	public FanOut getFanOut()
+	{
+		return fanOut;
+	}
+
+	public void setFanOut(FanOut fanOut)
+	{
+		if (fanOut == null)
+			throw new NullPointerException();
+
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * The per-node durations of the startup phases.
+	 */
+	public StartupMetrics getStartupMetrics()
+	{
+		return startupMetrics;
+	}
+
+	public void addLifecycleListener(NodeLifecycleListener<N> l)
+	{
+		lifecycleListeners.add(l);
+	}
+
 	public synchronized void discard(N n, Throwable reason)
 	{
 		if (reason.getMessage() == null)
@@ -53,6 +97,11 @@ public class Cluster<N extends SSHNode>
 		// System.out.println("Discarding node " + n);
 		nodes.remove(n);
 
+		for (NodeLifecycleListener<N> l : lifecycleListeners)
+		{
+			l.nodeDiscarded(n, reason);
+		}
+
 		if (nodes.isEmpty())
 			throw new IllegalStateException("no node remain in cluster");
 	}
@@ -78,9 +127,66 @@ public class Cluster<N extends SSHNode>
 		return allLocalHost;
 	}
 
+	/**
+	 * Writes the output of every node to its own rotating files in the given
+	 * directory. See {@link SSHNode#captureOutput(File, long, int)}.
+	 */
+	public void captureOutput(File directory, long maxSegmentSize, int tailSize)
+	{
+		for (N n : getNodes())
+		{
+			n.captureOutput(directory, maxSegmentSize, tailSize);
+		}
+	}
+
+	/**
+	 * Stops all the nodes in parallel. The returned future completes when
+	 * every node has been asked to stop.
+	 */
+	public CompletableFuture<Void> stopAsync()
+	{
+		return CompletableFuture.runAsync(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				new ParallelProcessing<N>(getFanOut(), "stop", getNodes())
+				{
+					@Override
+					protected void process(N n) throws Throwable
+					{
+						n.stop();
+					}
+				};
+			}
+		}, FanOut.getExecutor());
+	}
+
+	/**
+	 * Waits until the processes of all nodes have terminated, or until the
+	 * timeout expires.
+	 * 
+	 * @return true if all processes terminated
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		for (N n : getNodes())
+		{
+			long remaining = deadline - System.nanoTime();
+
+			if ( ! n.waitForTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS))
+				return false;
+		}
+
+		return true;
+	}
+
 	public void kill_9_1()
 	{
-		new OneElementOneThreadProcessing<N>(getNodes())
+		new ParallelProcessing<N>(getFanOut(), "kill -9 -1", getNodes())
 		{
 
 			@Override
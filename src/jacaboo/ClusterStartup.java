@@ -0,0 +1,126 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * The progress of an asynchronous cluster startup. Every node has its own
+ * future, which completes as soon as the application is launched on it, so
+ * that the caller can begin using it while the other nodes are still being
+ * deployed.
+ * 
+ * The aggregate future completes when all nodes are done, with the set of
+ * nodes which actually started. It completes exceptionally only if no node
+ * could be started.
+ */
+public class ClusterStartup<N extends SSHNode>
+{
+	private final Map<N, CompletableFuture<N>> nodeFutures = new HashMap<>();
+	private final CompletableFuture<Set<N>> all;
+
+	ClusterStartup(Collection<N> nodes)
+	{
+		for (N n : nodes)
+		{
+			nodeFutures.put(n, new CompletableFuture<N>());
+		}
+
+		all = CompletableFuture
+				.allOf(nodeFutures.values().toArray(new CompletableFuture<?>[0]))
+				.handle(new BiFunction<Void, Throwable, Set<N>>()
+				{
+					@Override
+					public Set<N> apply(Void v, Throwable t)
+					{
+						NodeSet<N> started = new NodeSet<>();
+						Throwable firstError = null;
+
+						for (CompletableFuture<N> f : nodeFutures.values())
+						{
+							try
+							{
+								started.add(f.join());
+							}
+							catch (Throwable e)
+							{
+								if (firstError == null)
+								{
+									firstError = e.getCause() == null ? e : e.getCause();
+								}
+							}
+						}
+
+						if (started.isEmpty() && firstError != null)
+							throw new IllegalStateException("no node could be started",
+									firstError);
+
+						return started;
+					}
+				});
+	}
+
+	public CompletableFuture<N> getFuture(N node)
+	{
+		CompletableFuture<N> f = nodeFutures.get(node);
+
+		if (f == null)
+			throw new IllegalArgumentException(node + " is not part of this startup");
+
+		return f;
+	}
+
+	public Map<N, CompletableFuture<N>> getNodeFutures()
+	{
+		return Collections.unmodifiableMap(nodeFutures);
+	}
+
+	public CompletableFuture<Set<N>> getAll()
+	{
+		return all;
+	}
+
+	void nodeStarted(N node)
+	{
+		getFuture(node).complete(node);
+	}
+
+	void nodeFailed(N node, Throwable reason)
+	{
+		getFuture(node).completeExceptionally(reason);
+	}
+
+	/**
+	 * Fails all the nodes which are neither started nor failed yet.
+	 */
+	void failRemaining(Throwable reason)
+	{
+		for (CompletableFuture<N> f : nodeFutures.values())
+		{
+			f.completeExceptionally(reason);
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import toools.text.LineStreamListener;
+
+/**
+ * The master side of the control protocol (see {@link ControlProtocol}) with
+ * the {@link MainClassRunner} of a node. Commands sent before the remote JVM
+ * is ready are queued, since until then stdin is read by the shell.
+ */
+public class ControlChannel
+{
+	public interface MessageListener
+	{
+		void messageReceived(SSHNode from, byte[] message);
+	}
+
+	public interface HeartbeatListener
+	{
+		void heartbeatReceived(SSHNode from, long sequenceNumber);
+	}
+
+	public interface StartupListener
+	{
+		/**
+		 * @param step
+		 *            {@link ControlProtocol#CONNECTED} or
+		 *            {@link ControlProtocol#MAIN_STARTED}
+		 */
+		void startupStepReached(SSHNode from, byte step);
+	}
+
+	public static class Status
+	{
+		public final String state;
+		public final long uptimeMs;
+		public final long heapUsed;
+
+		Status(String state, long uptimeMs, long heapUsed)
+		{
+			this.state = state;
+			this.uptimeMs = uptimeMs;
+			this.heapUsed = heapUsed;
+		}
+
+		@Override
+		public String toString()
+		{
+			return state + ", up for " + uptimeMs + "ms, heap " + heapUsed / 1000000
+					+ "MB";
+		}
+	}
+
+	private final SSHNode node;
+	private final OutputStream stdin;
+	private boolean ready = false;
+	private final List<byte[]> pendingFrames = new ArrayList<>();
+	private final Map<Long, CompletableFuture<Long>> pings = new HashMap<>();
+	private long nextPingID = 0;
+	private final Queue<CompletableFuture<Status>> statusRequests = new LinkedList<>();
+	private final CompletableFuture<Void> readyFuture = new CompletableFuture<>();
+	private volatile MessageListener messageListener;
+	private volatile HeartbeatListener heartbeatListener;
+	private volatile StartupListener startupListener;
+	private volatile boolean stopRequested = false;
+
+	ControlChannel(SSHNode node, OutputStream stdin)
+	{
+		this.node = node;
+		this.stdin = stdin;
+	}
+
+	/**
+	 * Splits the stdout of the node between the control frames, which are
+	 * handled by this channel, and the output of the application, which goes
+	 * to the given listeners.
+	 */
+	LineStreamListener createDispatcher(final List<LineStreamListener> outputListeners)
+	{
+		return new LineStreamListener()
+		{
+			@Override
+			public void newLine(String line)
+			{
+				int i = ControlProtocol.indexOfFrame(line);
+
+				// the frame completes a partial line of the application
+				if (i != 0)
+				{
+					String output = i < 0 ? line : line.substring(0, i);
+
+					for (LineStreamListener l : outputListeners)
+					{
+						l.newLine(output);
+					}
+				}
+
+				if (i >= 0)
+				{
+					received(line);
+				}
+			}
+		};
+	}
+
+	public SSHNode getNode()
+	{
+		return node;
+	}
+
+	public synchronized boolean isReady()
+	{
+		return ready;
+	}
+
+	/**
+	 * @return a future which completes when the remote JVM accepts commands
+	 */
+	public CompletableFuture<Void> whenReady()
+	{
+		return readyFuture;
+	}
+
+	public void setMessageListener(MessageListener messageListener)
+	{
+		this.messageListener = messageListener;
+	}
+
+	public void setHeartbeatListener(HeartbeatListener heartbeatListener)
+	{
+		this.heartbeatListener = heartbeatListener;
+	}
+
+	public void setStartupListener(StartupListener startupListener)
+	{
+		this.startupListener = startupListener;
+	}
+
+	/**
+	 * @return true if the application was asked to stop, after which the
+	 *         remote JVM is expected to go silent
+	 */
+	public boolean isStopRequested()
+	{
+		return stopRequested;
+	}
+
+	/**
+	 * Starts the given application, if none was given on the command line of
+	 * the JVM.
+	 */
+	public void start(Class<? extends RemoteMain> mainClass, List<String> args)
+			throws IOException
+	{
+		List<String> l = new ArrayList<>();
+		l.add(mainClass.getName());
+		l.add(Binaries.getApplicationName());
+		l.addAll(args);
+		send(ControlProtocol.START, ControlProtocol.encodeStrings(l));
+	}
+
+	/**
+	 * Asks the application to stop. The JVM exits as soon as the application
+	 * is stopped, or after the deadline. Nothing can be sent afterwards: stdin
+	 * is closed once the command is written.
+	 */
+	public void stop(long deadlineMs) throws IOException
+	{
+		synchronized (this)
+		{
+			stopRequested = true;
+			send(ControlProtocol.STOP, ControlProtocol.encodeLong(deadlineMs));
+
+			if (ready)
+			{
+				closeStdin();
+			}
+		}
+	}
+
+	private void closeStdin() throws IOException
+	{
+		synchronized (stdin)
+		{
+			stdin.close();
+		}
+	}
+
+	/**
+	 * @return a future round-trip time, in nanoseconds
+	 */
+	public CompletableFuture<Long> ping() throws IOException
+	{
+		CompletableFuture<Long> f = new CompletableFuture<>();
+		long id;
+
+		synchronized (this)
+		{
+			id = nextPingID++;
+			pings.put(id, f);
+		}
+
+		// the time of the request is in the payload, the reply returns it
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeLong(id);
+		dos.writeLong(System.nanoTime());
+		send(ControlProtocol.PING, bos.toByteArray());
+		return f;
+	}
+
+	public CompletableFuture<Status> status() throws IOException
+	{
+		CompletableFuture<Status> f = new CompletableFuture<>();
+
+		// the request is queued with the frame, so that replies (which come
+		// in order) match requests
+		synchronized (this)
+		{
+			statusRequests.add(f);
+			send(ControlProtocol.STATUS, new byte[0]);
+		}
+
+		return f;
+	}
+
+	public void send(byte[] userMessage) throws IOException
+	{
+		send(ControlProtocol.USER, userMessage);
+	}
+
+	private synchronized void send(byte type, byte[] payload) throws IOException
+	{
+		if (stopRequested && type != ControlProtocol.STOP)
+			throw new IOException(node + " was asked to stop");
+
+		byte[] frame = ControlProtocol.toBytes(type, payload);
+
+		if (ready)
+		{
+			write(frame);
+		}
+		else
+		{
+			pendingFrames.add(frame);
+		}
+	}
+
+	private void write(byte[] frame) throws IOException
+	{
+		synchronized (stdin)
+		{
+			stdin.write(frame);
+			stdin.flush();
+		}
+	}
+
+	void received(String line)
+	{
+		try
+		{
+			ControlProtocol.Frame f = ControlProtocol.fromLine(line);
+
+			if (f == null)
+				return;
+
+			DataInputStream is = f.getPayloadInputStream();
+
+			switch (f.type)
+			{
+			case ControlProtocol.READY:
+				synchronized (this)
+				{
+					ready = true;
+
+					for (byte[] frame : pendingFrames)
+					{
+						write(frame);
+					}
+
+					pendingFrames.clear();
+
+					if (stopRequested)
+					{
+						closeStdin();
+					}
+				}
+
+				readyFuture.complete(null);
+				break;
+			case ControlProtocol.PONG:
+				long id = is.readLong();
+				long rtt = System.nanoTime() - is.readLong();
+				CompletableFuture<Long> ping;
+
+				synchronized (this)
+				{
+					ping = pings.remove(id);
+				}
+
+				if (ping != null)
+				{
+					ping.complete(rtt);
+				}
+				break;
+			case ControlProtocol.STATUS_REPLY:
+				CompletableFuture<Status> request;
+
+				synchronized (this)
+				{
+					request = statusRequests.poll();
+				}
+
+				if (request != null)
+				{
+					request.complete(
+							new Status(is.readUTF(), is.readLong(), is.readLong()));
+				}
+				break;
+			case ControlProtocol.HEARTBEAT:
+				HeartbeatListener hl = heartbeatListener;
+
+				if (hl != null)
+				{
+					hl.heartbeatReceived(node, is.readLong());
+				}
+				break;
+			case ControlProtocol.CONNECTED:
+			case ControlProtocol.MAIN_STARTED:
+				StartupListener sl = startupListener;
+
+				if (sl != null)
+				{
+					sl.startupStepReached(node, f.type);
+				}
+				break;
+			case ControlProtocol.USER:
+				MessageListener l = messageListener;
+
+				if (l != null)
+				{
+					l.messageReceived(node, f.payload);
+				}
+				break;
+			default:
+				System.err.println(node + ": unknown control frame " + f.type);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println(node + ": invalid control frame: " + e.getMessage());
+		}
+	}
+}
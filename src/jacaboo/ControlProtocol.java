@@ -0,0 +1,215 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The control protocol between the master and {@link MainClassRunner}.
+ * 
+ * Frames are made of their length (int), their type (byte) and a payload.
+ * The master writes them as is to the stdin of the remote JVM. In the other
+ * direction, stdout also carries the output of the application, which is
+ * line-oriented: frames are hence sent as lines made of a marker followed by
+ * the frame encoded in Base64, which the master filters out of the output.
+ * The application may have left a partial line (a progress bar, a print()
+ * without a newline), so the marker is searched anywhere in the line.
+ */
+public class ControlProtocol
+{
+	// master => node
+	public static final byte START = 1;
+	public static final byte STOP = 2;
+	public static final byte PING = 3;
+	public static final byte STATUS = 4;
+
+	// node => master
+	public static final byte READY = 10;
+	public static final byte PONG = 11;
+	public static final byte STATUS_REPLY = 12;
+	public static final byte HEARTBEAT = 13;
+
+	// startup steps, the first one is printed by the shell of the node
+	public static final byte CONNECTED = 14;
+	public static final byte MAIN_STARTED = 15;
+
+	// both directions
+	public static final byte USER = 20;
+
+	public static final String lineMarker = "\u0001jacaboo ";
+
+	private static final int maxFrameSize = 64 * 1024 * 1024;
+
+	public static class Frame
+	{
+		public final byte type;
+		public final byte[] payload;
+
+		public Frame(byte type, byte[] payload)
+		{
+			this.type = type;
+			this.payload = payload;
+		}
+
+		public DataInputStream getPayloadInputStream()
+		{
+			return new DataInputStream(new ByteArrayInputStream(payload));
+		}
+	}
+
+	public static void write(OutputStream os, byte type, byte[] payload)
+			throws IOException
+	{
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(payload.length + 1);
+		dos.writeByte(type);
+		dos.write(payload);
+		dos.flush();
+	}
+
+	public static byte[] toBytes(byte type, byte[] payload)
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		try
+		{
+			write(bos, type, payload);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return bos.toByteArray();
+	}
+
+	/**
+	 * @return the next frame, or null if the stream is closed
+	 */
+	public static Frame read(DataInputStream is) throws IOException
+	{
+		int length;
+
+		try
+		{
+			length = is.readInt();
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+
+		if (length < 1 || length > maxFrameSize)
+			throw new IOException("invalid frame length: " + length);
+
+		byte type = is.readByte();
+		byte[] payload = new byte[length - 1];
+		is.readFully(payload);
+		return new Frame(type, payload);
+	}
+
+	public static String toLine(byte type, byte[] payload)
+	{
+		return lineMarker + Base64.getEncoder().encodeToString(toBytes(type, payload));
+	}
+
+	/**
+	 * @return the position of the frame in the line, or -1 if the line
+	 *         carries no frame. What precedes the frame is output of the
+	 *         application.
+	 */
+	public static int indexOfFrame(String line)
+	{
+		return line.indexOf(lineMarker);
+	}
+
+	public static boolean isControlLine(String line)
+	{
+		return indexOfFrame(line) >= 0;
+	}
+
+	public static Frame fromLine(String line) throws IOException
+	{
+		byte[] bytes = Base64.getDecoder()
+				.decode(line.substring(indexOfFrame(line) + lineMarker.length()));
+		return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	public static byte[] encodeLong(long n)
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		try
+		{
+			new DataOutputStream(bos).writeLong(n);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return bos.toByteArray();
+	}
+
+	public static byte[] encodeStrings(List<String> strings)
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+
+		try
+		{
+			dos.writeInt(strings.size());
+
+			for (String s : strings)
+			{
+				dos.writeUTF(s);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return bos.toByteArray();
+	}
+
+	public static List<String> decodeStrings(byte[] payload) throws IOException
+	{
+		DataInputStream is = new Frame((byte) 0, payload).getPayloadInputStream();
+		int n = is.readInt();
+		List<String> l = new ArrayList<>();
+
+		for (int i = 0; i < n; ++i)
+		{
+			l.add(is.readUTF());
+		}
+
+		return l;
+	}
+}
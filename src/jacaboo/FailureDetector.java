@@ -0,0 +1,374 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the failure of the remote JVMs from the heartbeats their
+ * {@link MainClassRunner} sends. The suspicion level of every JVM is computed
+ * with the phi accrual method: the intervals between heartbeats are assumed
+ * to follow a normal distribution, estimated from the last ones, and phi is
+ * -log10 of the probability that a heartbeat is still to come after the
+ * current silence. A JVM is declared failed when phi exceeds a threshold
+ * (8 by default, that is a chance of mistake of 1e-8), when it has been silent
+ * longer than a maximum, which bounds the detection time, or as soon as its
+ * SSH connection terminates. Whatever phi, a JVM is not suspected before a
+ * minimum silence, long enough for a full garbage collection of a large heap
+ * or a stalled output.
+ * 
+ * A JVM is monitored from its launch on, and no longer once it was asked to
+ * stop. Until its first heartbeat, it is failed only after the maximum
+ * silence, so that a JVM which hangs while starting is detected too.
+ * 
+ * With the default settings (a heartbeat per second and a minimum silence of
+ * 10s), phi is far above the threshold once the minimum silence is over, so
+ * the detector behaves as a 10s timeout. Phi only matters with a minimum
+ * silence of a few intervals.
+ */
+public class FailureDetector<N extends SSHNode>
+{
+	public interface Listener<N>
+	{
+		/**
+		 * Called once per failed node, from the thread of the detector.
+		 */
+		void nodeFailed(N node, String reason);
+	}
+
+	public static final String thresholdProperty = "biggrph.heartbeat.phi";
+	public static final String minSilenceProperty = "biggrph.heartbeat.minSilence";
+	public static final String maxSilenceProperty = "biggrph.heartbeat.maxSilence";
+
+	public static final long defaultIntervalMs = 1000;
+	public static final long defaultMinSilenceMs = 10000;
+
+	private static final int windowSize = 100;
+
+	/**
+	 * The arrival times of the heartbeats of one JVM.
+	 */
+	static class History
+	{
+		private final long[] intervals = new long[windowSize];
+		private int count = 0;
+		private double sum = 0, sumOfSquares = 0;
+		private long lastNs = - 1;
+		private final long expectedIntervalNs;
+		private final long startNs;
+
+		/**
+		 * @param startNs
+		 *            when the JVM was launched, the silence until the first
+		 *            heartbeat counts from there
+		 */
+		History(long expectedIntervalNs, long startNs)
+		{
+			this.expectedIntervalNs = expectedIntervalNs;
+			this.startNs = startNs;
+		}
+
+		synchronized void heartbeat(long nowNs)
+		{
+			if (lastNs >= 0)
+			{
+				long interval = nowNs - lastNs;
+				int i = count % windowSize;
+
+				if (count >= windowSize)
+				{
+					sum -= intervals[i];
+					sumOfSquares -= (double) intervals[i] * intervals[i];
+				}
+
+				intervals[i] = interval;
+				sum += interval;
+				sumOfSquares += (double) interval * interval;
+				++count;
+			}
+
+			lastNs = nowNs;
+		}
+
+		synchronized boolean isStarted()
+		{
+			return lastNs >= 0;
+		}
+
+		synchronized long getSilenceNs(long nowNs)
+		{
+			return nowNs - (lastNs >= 0 ? lastNs : startNs);
+		}
+
+		synchronized double phi(long nowNs)
+		{
+			int n = Math.min(count, windowSize);
+
+			// until there are samples, the heartbeats are assumed to come on time
+			double mean = n == 0 ? expectedIntervalNs : sum / n;
+			double variance = n == 0 ? 0 : sumOfSquares / n - mean * mean;
+
+			// network jitter is not visible on a few samples
+			double stdDev = Math.max(Math.sqrt(Math.max(0, variance)), mean / 4);
+			return phi(nowNs - lastNs, mean, stdDev);
+		}
+
+		/*
+		 * Uses the logistic approximation of the cumulative distribution
+		 * function of the normal distribution.
+		 */
+		static double phi(double silence, double mean, double stdDev)
+		{
+			double y = (silence - mean) / stdDev;
+			double e = Math.exp( - y * (1.5976 + 0.070566 * y * y));
+
+			if (silence > mean)
+			{
+				return - Math.log10(e / (1 + e));
+			}
+			else
+			{
+				return - Math.log10(1 - 1 / (1 + e));
+			}
+		}
+	}
+
+	private class Watch
+	{
+		final N node;
+		final SSHNode jvm;
+		final History history = new History(intervalMs * 1000000,
+				System.nanoTime());
+
+		Watch(N node, SSHNode jvm)
+		{
+			this.node = node;
+			this.jvm = jvm;
+		}
+	}
+
+	private final List<Watch> watches = new CopyOnWriteArrayList<>();
+	private final List<Listener<N>> listeners = new CopyOnWriteArrayList<>();
+	private final long intervalMs;
+	private final double threshold;
+	private final long minSilenceMs;
+	private final long maxSilenceMs;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Uses the heartbeat interval given by the
+	 * {@value MainClassRunner#heartbeatIntervalProperty} property, the phi
+	 * threshold given by the {@value #thresholdProperty} property, the minimum
+	 * silence given by the {@value #minSilenceProperty} property (10s by
+	 * default) and the maximum silence given by the
+	 * {@value #maxSilenceProperty} property (3 minimum silences by default).
+	 */
+	public FailureDetector()
+	{
+		this(Long.getLong(MainClassRunner.heartbeatIntervalProperty, defaultIntervalMs),
+				Long.getLong(minSilenceProperty, defaultMinSilenceMs));
+	}
+
+	private FailureDetector(long intervalMs, long minSilenceMs)
+	{
+		this(intervalMs, Double.parseDouble(System.getProperty(thresholdProperty, "8")),
+				minSilenceMs, Long.getLong(maxSilenceProperty, 3 * minSilenceMs));
+	}
+
+	/**
+	 * @param maxSilenceMs
+	 *            the silence after which a JVM is failed whatever phi, at
+	 *            least the minimum silence
+	 */
+	public FailureDetector(long intervalMs, double threshold, long minSilenceMs,
+			long maxSilenceMs)
+	{
+		this.intervalMs = intervalMs;
+		this.threshold = threshold;
+		this.minSilenceMs = minSilenceMs;
+		this.maxSilenceMs = Math.max(minSilenceMs, maxSilenceMs);
+	}
+
+	/**
+	 * @return the period the JVMs are expected to send their heartbeats at
+	 */
+	public long getIntervalMs()
+	{
+		return intervalMs;
+	}
+
+	public void addListener(Listener<N> l)
+	{
+		listeners.add(l);
+	}
+
+	/**
+	 * Monitors the given JVM, whose failure is reported as a failure of the
+	 * given node (which is the JVM itself, or the computer it runs on).
+	 */
+	public void watch(N node, SSHNode jvm)
+	{
+		final Watch w = new Watch(node, jvm);
+		watches.add(w);
+
+		jvm.getControlChannel().setHeartbeatListener(new ControlChannel.HeartbeatListener()
+		{
+			@Override
+			public void heartbeatReceived(SSHNode from, long sequenceNumber)
+			{
+				w.history.heartbeat(System.nanoTime());
+			}
+		});
+
+		synchronized (this)
+		{
+			if (timer == null)
+			{
+				timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, "jacaboo failure detector");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+				// a fraction of the interval, so that the detection time is
+				// not much longer than the silence
+				long period = Math.max(10, intervalMs / 4);
+				timer.scheduleWithFixedDelay(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						check();
+					}
+				}, period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Stops monitoring the JVMs of the given node.
+	 */
+	public void unwatch(N node)
+	{
+		for (Watch w : watches)
+		{
+			if (w.node == node)
+			{
+				watches.remove(w);
+			}
+		}
+	}
+
+	/**
+	 * @return the current suspicion level of the given JVM, or 0 if it is not
+	 *         monitored yet
+	 */
+	public double getPhi(SSHNode jvm)
+	{
+		for (Watch w : watches)
+		{
+			if (w.jvm == jvm)
+			{
+				return w.history.isStarted() ? w.history.phi(System.nanoTime()) : 0;
+			}
+		}
+
+		return 0;
+	}
+
+	void check()
+	{
+		long now = System.nanoTime();
+
+		for (Watch w : watches)
+		{
+			String reason = null;
+
+			if (w.jvm.getControlChannel().isStopRequested())
+			{
+				watches.remove(w);
+			}
+			else if (w.jvm.isProcessTerminated())
+			{
+				reason = w.jvm + ": connection terminated";
+			}
+			else if (w.history.isStarted())
+			{
+				double phi = w.history.phi(now);
+				long silenceMs = w.history.getSilenceNs(now) / 1000000;
+
+				if (silenceMs > minSilenceMs
+						&& (phi > threshold || silenceMs > maxSilenceMs))
+				{
+					reason = w.jvm + ": no heartbeat for " + silenceMs + "ms (phi="
+							+ String.format("%.1f", phi) + ")";
+				}
+			}
+			else
+			{
+				long silenceMs = w.history.getSilenceNs(now) / 1000000;
+
+				if (silenceMs > maxSilenceMs)
+				{
+					reason = w.jvm + ": no heartbeat in the " + silenceMs
+							+ "ms since its launch";
+				}
+			}
+
+			if (reason != null && watches.contains(w))
+			{
+				unwatch(w.node);
+
+				for (Listener<N> l : listeners)
+				{
+					try
+					{
+						l.nodeFailed(w.node, reason);
+					}
+					catch (Throwable e)
+					{
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized void shutdown()
+	{
+		watches.clear();
+
+		if (timer != null)
+		{
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a processing phase on a set of elements (nodes, NAS groups...) in
+ * parallel, with at most {@link #getParallelism()} elements processed at the
+ * same time. Virtual threads are used when the JVM provides them, platform
+ * daemon threads otherwise.
+ * 
+ * The parallelism bounds both the number of threads of the master and the
+ * number of SSH connections simultaneously opened (sshd's MaxStartups on the
+ * frontal refuses connections beyond a certain point). The bound is shared
+ * by all the phases of a fan-out, nested ones included: an element whose
+ * processing runs a nested phase gives its slot back while it waits for it.
+ */
+public class FanOut
+{
+	public interface ProgressListener
+	{
+		void progress(String phase, int done, int failed, int total);
+	}
+
+	public static final String parallelismProperty = "biggrph.fanout.parallelism";
+	public static final String progressProperty = "biggrph.fanout.progress";
+
+	/**
+	 * Reports nothing.
+	 */
+	public static final ProgressListener silentProgressListener = new ProgressListener()
+	{
+		@Override
+		public void progress(String phase, int done, int failed, int total)
+		{
+		}
+	};
+
+	/**
+	 * Prints a line every 10% of the phase, and a line at the end of it. This
+	 * is the default listener, unless the {@value #progressProperty} property
+	 * is false.
+	 */
+	public static final ProgressListener consoleProgressListener = new ProgressListener()
+	{
+		@Override
+		public void progress(String phase, int done, int failed, int total)
+		{
+			if (done == total || (total >= 20 && done % (total / 10) == 0))
+			{
+				System.out.println(phase + ": " + done + "/" + total
+						+ (failed > 0 ? " (" + failed + " failed)" : ""));
+			}
+		}
+	};
+
+	private static final ExecutorService executor = createExecutor();
+
+	private int parallelism = 0;
+	private final Permits permits = new Permits();
+	private final ThreadLocal<Boolean> inElement = new ThreadLocal<>();
+	private ProgressListener progressListener = Boolean
+			.parseBoolean(System.getProperty(progressProperty, "true"))
+					? consoleProgressListener : silentProgressListener;
+
+	@SuppressWarnings("serial")
+	private static class Permits extends Semaphore
+	{
+		Permits()
+		{
+			super(0);
+		}
+
+		void reduce(int n)
+		{
+			reducePermits(n);
+		}
+	}
+
+	public FanOut()
+	{
+		this(Integer.parseInt(System.getProperty(parallelismProperty, "64")));
+	}
+
+	public FanOut(int parallelism)
+	{
+		setParallelism(parallelism);
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	public synchronized void setParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+
+		// the elements in progress keep their permit
+		if (parallelism > this.parallelism)
+		{
+			permits.release(parallelism - this.parallelism);
+		}
+		else
+		{
+			permits.reduce(this.parallelism - parallelism);
+		}
+
+		this.parallelism = parallelism;
+	}
+
+	public ProgressListener getProgressListener()
+	{
+		return progressListener;
+	}
+
+	public void setProgressListener(ProgressListener progressListener)
+	{
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * The executor of the fan-out, for the background tasks of the cluster.
+	 */
+	static Executor getExecutor()
+	{
+		return executor;
+	}
+
+	public static boolean usesVirtualThreads()
+	{
+		return ! (executor instanceof java.util.concurrent.ThreadPoolExecutor);
+	}
+
+	/**
+	 * Processes all the elements and returns when all of them are done. If
+	 * some of them failed, an exception whose cause is the first failure is
+	 * thrown.
+	 */
+	<E> void process(final String phase, Collection<E> elements,
+			final ParallelProcessing<E> p)
+	{
+		// the collection may be a view on the nodes of a cluster, which
+		// change when a node is discarded
+		final List<E> snapshot = new ArrayList<>(elements);
+		final int total = snapshot.size();
+		final Semaphore completed = new Semaphore(0);
+		final AtomicInteger done = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final List<Throwable> errors = new ArrayList<>();
+
+		// a nested phase: the caller only waits, so its permit goes to the
+		// elements of the phase
+		boolean nested = inElement.get() != null;
+
+		if (nested)
+		{
+			permits.release();
+		}
+
+		try
+		{
+			processAll(phase, snapshot, p, completed, done, failed, errors);
+		}
+		finally
+		{
+			if (nested)
+			{
+				permits.acquireUninterruptibly();
+			}
+		}
+
+		if ( ! errors.isEmpty())
+			throw new IllegalStateException(phase + ": " + errors.size() + "/" + total
+					+ " failed: " + errors.get(0), errors.get(0));
+	}
+
+	private <E> void processAll(final String phase, List<E> snapshot,
+			final ParallelProcessing<E> p, final Semaphore completed,
+			final AtomicInteger done, final AtomicInteger failed,
+			final List<Throwable> errors)
+	{
+		final int total = snapshot.size();
+
+		for (final E e : snapshot)
+		{
+			permits.acquireUninterruptibly();
+
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					inElement.set(Boolean.TRUE);
+
+					try
+					{
+						p.process(e);
+					}
+					catch (Throwable t)
+					{
+						failed.incrementAndGet();
+
+						synchronized (errors)
+						{
+							errors.add(t);
+						}
+					}
+					finally
+					{
+						inElement.remove();
+						permits.release();
+
+						if (progressListener != null)
+						{
+							progressListener.progress(phase, done.incrementAndGet(),
+									failed.get(), total);
+						}
+
+						completed.release();
+					}
+				}
+			});
+		}
+
+		completed.acquireUninterruptibly(total);
+	}
+
+	private static ExecutorService createExecutor()
+	{
+		try
+		{
+			// Java 21+
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(new ThreadFactory()
+			{
+				private final AtomicInteger n = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "jacaboo-fanout-" + n.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+}
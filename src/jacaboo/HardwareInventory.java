@@ -0,0 +1,365 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The capacity and the state of a node, as probed by running
+ * {@link #probeScript} on it: its cores, sockets and NUMA nodes, its memory,
+ * the limits of the control group (cgroup v1 or v2) the processes started by
+ * SSH belong to, its load, the number of users logged in, its local disk
+ * space and its network interfaces.
+ * The state changes over time, so the inventory tells when it was probed.
+ */
+public class HardwareInventory
+{
+	/**
+	 * Prints one "key value..." line per resource. The core count takes the
+	 * CPU affinity into account.
+	 */
+	public static final String probeScript = "echo cores $(nproc 2>/dev/null || getconf _NPROCESSORS_ONLN)\n"
+			+ "echo sockets $(grep '^physical id' /proc/cpuinfo | sort -u | wc -l)\n"
+			+ "echo numaNodes $(ls -d /sys/devices/system/node/node[0-9]* 2>/dev/null | wc -l)\n"
+			+ "awk '/^MemTotal:/ { print \"memoryKB\", $2 } "
+			+ "/^MemAvailable:/ { print \"freeMemoryKB\", $2 }' /proc/meminfo\n"
+			+ "echo load $(cut -d' ' -f1 /proc/loadavg)\n"
+			+ "echo users $(who | cut -d' ' -f1 | sort -u | wc -l)\n"
+			+ "echo localDiskKB $(df -Pk /tmp | awk 'NR == 2 { print $4 }')\n"
+			+ "for i in $(ls /sys/class/net); do [ $i = lo ] || "
+			+ "echo interface $i $(cat /sys/class/net/$i/speed 2>/dev/null); done\n"
+			+ "g=$(sed -n 's/^0:://p' /proc/self/cgroup)\n"
+			+ "if [ -f /sys/fs/cgroup$g/memory.max ]; then\n"
+			+ "  echo cgroupMemory $(cat /sys/fs/cgroup$g/memory.max)\n"
+			+ "  echo cgroupCpu $(cat /sys/fs/cgroup$g/cpu.max 2>/dev/null)\n"
+			+ "else\n"
+			+ "  m=/sys/fs/cgroup/memory$(awk -F: '$2 ~ /(^|,)memory(,|$)/ { print $3 }' /proc/self/cgroup)\n"
+			+ "  [ -f $m/memory.limit_in_bytes ] || m=/sys/fs/cgroup/memory\n"
+			+ "  echo cgroupMemory $(cat $m/memory.limit_in_bytes 2>/dev/null)\n"
+			+ "  c=/sys/fs/cgroup/cpu$(awk -F: '$2 ~ /(^|,)cpu(,|$)/ { print $3 }' /proc/self/cgroup)\n"
+			+ "  [ -f $c/cpu.cfs_quota_us ] || c=/sys/fs/cgroup/cpu\n"
+			+ "  echo cgroupCpu $(cat $c/cpu.cfs_quota_us $c/cpu.cfs_period_us 2>/dev/null)\n"
+			+ "fi\n";
+
+	private long probeDate = System.currentTimeMillis();
+	private int cores = - 1;
+	private int sockets = - 1;
+	private int numaNodes = - 1;
+	private long memory = - 1;
+	private long freeMemory = - 1;
+	private long cgroupMemoryLimit = - 1;
+	private double cgroupCPULimit = - 1;
+	private double loadAverage = - 1;
+	private int users = - 1;
+	private long localDiskSpace = - 1;
+
+	// interface name -> speed in Mb/s, -1 if unknown
+	private final Map<String, Integer> networkInterfaces = new LinkedHashMap<>();
+
+	public static HardwareInventory parse(List<String> lines)
+	{
+		HardwareInventory inv = new HardwareInventory();
+
+		for (String line : lines)
+		{
+			String[] f = line.trim().split(" +");
+
+			try
+			{
+				if (f[0].equals("cores") && f.length == 2)
+				{
+					inv.cores = Integer.parseInt(f[1]);
+				}
+				else if (f[0].equals("sockets") && f.length == 2)
+				{
+					// virtual machines may not tell
+					inv.sockets = Math.max(1, Integer.parseInt(f[1]));
+				}
+				else if (f[0].equals("numaNodes") && f.length == 2)
+				{
+					inv.numaNodes = Math.max(1, Integer.parseInt(f[1]));
+				}
+				else if (f[0].equals("memoryKB") && f.length == 2)
+				{
+					inv.memory = Long.parseLong(f[1]) * 1024;
+				}
+				else if (f[0].equals("freeMemoryKB") && f.length == 2)
+				{
+					inv.freeMemory = Long.parseLong(f[1]) * 1024;
+				}
+				else if (f[0].equals("load") && f.length == 2)
+				{
+					inv.loadAverage = Double.parseDouble(f[1]);
+				}
+				else if (f[0].equals("users") && f.length == 2)
+				{
+					inv.users = Integer.parseInt(f[1]);
+				}
+				else if (f[0].equals("localDiskKB") && f.length == 2)
+				{
+					inv.localDiskSpace = Long.parseLong(f[1]) * 1024;
+				}
+				else if (f[0].equals("interface") && f.length >= 2)
+				{
+					inv.networkInterfaces.put(f[1],
+							f.length == 3 ? Math.max(- 1, Integer.parseInt(f[2])) : - 1);
+				}
+				else if (f[0].equals("cgroupMemory") && f.length == 2 && ! f[1].equals("max"))
+				{
+					long limit = Long.parseLong(f[1]);
+
+					// cgroup v1 says "no limit" with a huge value
+					if (limit < Long.MAX_VALUE / 2)
+					{
+						inv.cgroupMemoryLimit = limit;
+					}
+				}
+				else if (f[0].equals("cgroupCpu") && f.length == 3 && ! f[1].equals("max"))
+				{
+					long quota = Long.parseLong(f[1]);
+
+					if (quota > 0)
+					{
+						inv.cgroupCPULimit = quota / (double) Long.parseLong(f[2]);
+					}
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				// the resource is unknown
+			}
+		}
+
+		return inv;
+	}
+
+	/**
+	 * @return when the inventory was probed, as given by
+	 *         System.currentTimeMillis()
+	 */
+	public long getProbeDate()
+	{
+		return probeDate;
+	}
+
+	public long getAgeMs()
+	{
+		return System.currentTimeMillis() - probeDate;
+	}
+
+	/**
+	 * @return the number of cores, or -1 if unknown
+	 */
+	public int getCores()
+	{
+		return cores;
+	}
+
+	/**
+	 * @return the physical memory in bytes, or -1 if unknown
+	 */
+	public long getMemory()
+	{
+		return memory;
+	}
+
+	/**
+	 * @return the number of sockets, or -1 if unknown
+	 */
+	public int getSockets()
+	{
+		return sockets;
+	}
+
+	/**
+	 * @return the number of NUMA nodes, or -1 if unknown
+	 */
+	public int getNUMANodes()
+	{
+		return numaNodes;
+	}
+
+	/**
+	 * @return the memory available for new processes in bytes, or -1 if
+	 *         unknown
+	 */
+	public long getFreeMemory()
+	{
+		return freeMemory;
+	}
+
+	/**
+	 * @return the load average over the last minute, or -1 if unknown
+	 */
+	public double getLoadAverage()
+	{
+		return loadAverage;
+	}
+
+	/**
+	 * @return the number of distinct users logged in, or -1 if unknown
+	 */
+	public int getLoggedInUsers()
+	{
+		return users;
+	}
+
+	/**
+	 * @return the free space in the local temporary directory in bytes, or -1
+	 *         if unknown
+	 */
+	public long getLocalDiskSpace()
+	{
+		return localDiskSpace;
+	}
+
+	/**
+	 * @return the speed in Mb/s (-1 if unknown) of every network interface
+	 *         but the loopback one
+	 */
+	public Map<String, Integer> getNetworkInterfaces()
+	{
+		return Collections.unmodifiableMap(networkInterfaces);
+	}
+
+	/**
+	 * @return the memory limit of the cgroup in bytes, or -1 if there is none
+	 */
+	public long getCgroupMemoryLimit()
+	{
+		return cgroupMemoryLimit;
+	}
+
+	/**
+	 * @return the number of CPUs the cgroup can use, or -1 if not limited
+	 */
+	public double getCgroupCPULimit()
+	{
+		return cgroupCPULimit;
+	}
+
+	/**
+	 * @return the memory processes can actually use, or -1 if unknown
+	 */
+	public long getUsableMemory()
+	{
+		if (cgroupMemoryLimit > 0 && (memory < 0 || cgroupMemoryLimit < memory))
+			return cgroupMemoryLimit;
+
+		return memory;
+	}
+
+	/**
+	 * @return the number of cores processes can actually use, or -1 if
+	 *         unknown
+	 */
+	public int getUsableCores()
+	{
+		if (cgroupCPULimit > 0)
+		{
+			int n = (int) Math.max(1, Math.ceil(cgroupCPULimit));
+			return cores > 0 ? Math.min(cores, n) : n;
+		}
+
+		return cores;
+	}
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeLong(probeDate);
+		out.writeInt(cores);
+		out.writeInt(sockets);
+		out.writeInt(numaNodes);
+		out.writeLong(memory);
+		out.writeLong(freeMemory);
+		out.writeLong(cgroupMemoryLimit);
+		out.writeFloat((float) cgroupCPULimit);
+		out.writeFloat((float) loadAverage);
+		out.writeInt(users);
+		out.writeLong(localDiskSpace);
+		out.writeShort(networkInterfaces.size());
+
+		for (Map.Entry<String, Integer> e : networkInterfaces.entrySet())
+		{
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue());
+		}
+	}
+
+	public static HardwareInventory read(DataInput in) throws IOException
+	{
+		HardwareInventory inv = new HardwareInventory();
+		inv.probeDate = in.readLong();
+		inv.cores = in.readInt();
+		inv.sockets = in.readInt();
+		inv.numaNodes = in.readInt();
+		inv.memory = in.readLong();
+		inv.freeMemory = in.readLong();
+		inv.cgroupMemoryLimit = in.readLong();
+		inv.cgroupCPULimit = in.readFloat();
+		inv.loadAverage = in.readFloat();
+		inv.users = in.readInt();
+		inv.localDiskSpace = in.readLong();
+
+		for (int i = in.readShort(); i > 0; --i)
+		{
+			inv.networkInterfaces.put(in.readUTF(), in.readInt());
+		}
+
+		return inv;
+	}
+
+	@Override
+	public String toString()
+	{
+		List<String> l = new ArrayList<>();
+		l.add(getUsableCores() + " cores");
+
+		if (sockets > 0)
+			l.add(sockets + " sockets");
+
+		if (numaNodes > 0)
+			l.add(numaNodes + " NUMA nodes");
+
+		l.add(getUsableMemory() / 1000000 + "MB");
+
+		if (freeMemory >= 0)
+			l.add(freeMemory / 1000000 + "MB free");
+
+		if (loadAverage >= 0)
+			l.add(String.format("load %.2f", loadAverage));
+
+		if (users >= 0)
+			l.add(users + " users");
+
+		if (localDiskSpace >= 0)
+			l.add(localDiskSpace / 1000000000 + "GB on disk");
+
+		l.add(networkInterfaces.keySet().toString());
+		return String.join(", ", l);
+	}
+}
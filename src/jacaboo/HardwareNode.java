@@ -40,11 +40,18 @@ import toools.io.IORuntimeException;
  */
 public class HardwareNode implements Comparable<HardwareNode>, Externalizable
 {
+	static final long serialVersionUID = 0L;
+
 	private InetAddress ipAddress;
 
+	// canonical name, so that printing and sorting nodes never hit the DNS
+	private String name;
+
 	// cache for limited access to the DNS and network configuration of the host
 	private int isLocalhost = - 1;
 
+	private HardwareInventory inventory;
+
 	/**
 	 * For serialization. Do not use.
 	 */
@@ -73,7 +80,7 @@ public class HardwareNode implements Comparable<HardwareNode>, Externalizable
 	{
 		try
 		{
-			this.ipAddress = InetAddress.getByName(nodeSpec);
+			this.ipAddress = Resolver.resolve(nodeSpec);
 		}
 		catch (UnknownHostException e)
 		{
@@ -94,12 +101,27 @@ public class HardwareNode implements Comparable<HardwareNode>, Externalizable
 	protected void setIpAddress(InetAddress ipAddress)
 	{
 		this.ipAddress = ipAddress;
+		this.name = null;
+	}
+
+	/**
+	 * @return the host name of the node, computed once
+	 * @see Resolver#getName(InetAddress)
+	 */
+	public String getName()
+	{
+		if (name == null)
+		{
+			name = Resolver.getName(getInetAddress());
+		}
+
+		return name;
 	}
 
 	@Override
 	public String toString()
 	{
-		return getInetAddress().getHostName();
+		return getName();
 	}
 
 	@Override
@@ -109,6 +131,12 @@ public class HardwareNode implements Comparable<HardwareNode>, Externalizable
 				getInetAddress().equals(((HardwareNode) o).getInetAddress());
 	}
 
+	@Override
+	public int hashCode()
+	{
+		return getInetAddress().hashCode();
+	}
+
 //	public boolean equals(HardwareNode o)
 //	{
 //		return o != null && o.getInetAddress().equals(getInetAddress());
@@ -159,22 +187,71 @@ public class HardwareNode implements Comparable<HardwareNode>, Externalizable
 		return isLocalhost == 1;
 	}
 
+	/**
+	 * @return the capacity of the node, or null if it was not probed
+	 */
+	public HardwareInventory getInventory()
+	{
+		return inventory;
+	}
+
+	/**
+	 * @return the capacity of the node, or null if it was not probed in the
+	 *         given time
+	 */
+	public HardwareInventory getInventory(long maxAgeMs)
+	{
+		HardwareInventory inv = inventory;
+		return inv == null || inv.getAgeMs() > maxAgeMs ? null : inv;
+	}
+
+	public void setInventory(HardwareInventory inventory)
+	{
+		this.inventory = inventory;
+	}
+
 	@Override
 	public int compareTo(HardwareNode o)
 	{
-		return getInetAddress().getHostName().compareTo(o.getInetAddress().getHostName());
+		return getName().compareTo(o.getName());
 	}
 
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException
 	{
-		out.writeObject(ipAddress);
+		write(new NodeCodec.Writer(out));
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
 	{
-		ipAddress = (InetAddress) in.readObject();
+		read(new NodeCodec.Reader(in));
+	}
+
+	/**
+	 * Writes the node in the compact form shared by all the nodes of a
+	 * {@link NodeSet}. Subclasses add their own fields after the ones of their
+	 * superclass.
+	 */
+	protected void write(NodeCodec.Writer w) throws IOException
+	{
+		w.writeAddress(ipAddress, getName());
+		w.getOutput().writeBoolean(inventory != null);
+
+		if (inventory != null)
+		{
+			inventory.write(w.getOutput());
+		}
+	}
+
+	protected void read(NodeCodec.Reader r) throws IOException
+	{
+		ipAddress = r.readAddress();
+
+		if (r.getInput().readBoolean())
+		{
+			inventory = HardwareInventory.read(r.getInput());
+		}
 	}
 
 }
@@ -19,8 +19,62 @@
 
 package jacaboo;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
 public class JVM
 {
+	/**
+	 * What a JVM can do, beyond running the bytecode of its version.
+	 */
+	public enum Capability
+	{
+		G1, ZGC, GENERATIONAL_ZGC, SHENANDOAH, COMPACT_STRINGS, DYNAMIC_CDS
+	}
+
+	/**
+	 * What an application requires from the JVM of the nodes: a range of
+	 * (feature) versions and a set of capabilities.
+	 */
+	public static class Requirement
+	{
+		public final int minVersion, maxVersion;
+		public final Set<Capability> capabilities;
+
+		public Requirement(int minVersion, int maxVersion, Capability... capabilities)
+		{
+			if (minVersion > maxVersion)
+				throw new IllegalArgumentException(
+						"empty version range: " + minVersion + "-" + maxVersion);
+
+			this.minVersion = minVersion;
+			this.maxVersion = maxVersion;
+			this.capabilities = capabilities.length == 0
+					? EnumSet.noneOf(Capability.class)
+					: EnumSet.of(capabilities[0], capabilities);
+		}
+
+		public boolean accepts(JVM jvm)
+		{
+			return jvm.version >= minVersion && jvm.version <= maxVersion
+					&& jvm.capabilities.containsAll(capabilities);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Java " + minVersion
+					+ (maxVersion == Integer.MAX_VALUE ? "+" : "-" + maxVersion)
+					+ (capabilities.isEmpty() ? "" : " with " + capabilities);
+		}
+	}
+
+	/**
+	 * Any JVM able to run the framework.
+	 */
+	public static final Requirement anyJVM = new Requirement(8, Integer.MAX_VALUE);
+
 	public static final JVM validatedJVM = new JVM("http://www.i3s.unice.fr/~hogie/octojus/jvm",
 			"jre-8u45-linux-i586.tar.gz",
 			"jre1.8.0_45/bin/java");
@@ -35,29 +89,60 @@ public class JVM
 
 	public static final JVM defaultJava = new JVM("java");
 	
-	public static final JVM currentJava = new JVM(System.getProperty("java.home") + "/bin/java");
+	public static final JVM currentJava = new JVM(
+			System.getProperty("java.home") + "/bin/java",
+			parseVersion(System.getProperty("java.version")),
+			System.getProperty("java.vm.name") + " " + System.getProperty("java.vendor"));
 	
 	private final String command;
 	private final String archiveName;
 	private final String url;
 	private final String downloadOptions;
+	private final int version;
+	private final Set<Capability> capabilities;
 
+	/**
+	 * A JVM whose version is not known.
+	 */
 	public JVM(String cmd)
 	{
-		this(null, null, cmd);
+		this(null, null, "", cmd, 0, EnumSet.noneOf(Capability.class));
 	}
-	
+
+	public JVM(String cmd, int version, Set<Capability> capabilities)
+	{
+		this(null, null, "", cmd, version, capabilities);
+	}
+
+	/**
+	 * @param description
+	 *            a description of the VM, which mentions "shenandoah" if it
+	 *            was found to support it
+	 */
+	public JVM(String cmd, int version, String description)
+	{
+		this(cmd, version, guessCapabilities(version, description));
+	}
+
 	private JVM(String url, String filename, String cmd)
 	{
 		this(url, filename, "", cmd);
 	}
 
 	private JVM(String url, String filename, String downloadOpts, String cmd)
+	{
+		this(url, filename, downloadOpts, cmd, 8, guessCapabilities(8, ""));
+	}
+
+	private JVM(String url, String filename, String downloadOpts, String cmd,
+			int version, Set<Capability> capabilities)
 	{
 		this.archiveName = filename;
 		this.command = cmd;
 		this.url = url;
 		this.downloadOptions = downloadOpts;
+		this.version = version;
+		this.capabilities = Collections.unmodifiableSet(capabilities);
 	}
 
 	public String getCommand()
@@ -79,4 +164,78 @@ public class JVM
 	{
 		return archiveName;
 	}
+
+	/**
+	 * @return the feature version (8, 11, 17...), or 0 if it is not known
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	public Set<Capability> getCapabilities()
+	{
+		return capabilities;
+	}
+
+	public boolean has(Capability c)
+	{
+		return capabilities.contains(c);
+	}
+
+	@Override
+	public String toString()
+	{
+		return command + (version == 0 ? "" : " (Java " + version + ")");
+	}
+
+	/**
+	 * @return the feature version in the given "java.version" string ("1.8.0_51",
+	 *         "11.0.2", "17-ea", "21"), or 0 if it cannot be parsed
+	 */
+	public static int parseVersion(String s)
+	{
+		if (s.startsWith("1."))
+		{
+			s = s.substring(2);
+		}
+
+		int i = 0;
+
+		while (i < s.length() && Character.isDigit(s.charAt(i)))
+		{
+			++i;
+		}
+
+		return i == 0 ? 0 : Integer.parseInt(s.substring(0, i));
+	}
+
+	/*
+	 * Shenandoah is not in every build (not in Oracle ones), so it cannot be
+	 * deduced from the version.
+	 */
+	private static Set<Capability> guessCapabilities(int version, String description)
+	{
+		Set<Capability> s = EnumSet.noneOf(Capability.class);
+
+		if (version >= 8)
+			s.add(Capability.G1);
+
+		if (version >= 9)
+			s.add(Capability.COMPACT_STRINGS);
+
+		if (version >= 13)
+			s.add(Capability.DYNAMIC_CDS);
+
+		if (version >= 15)
+			s.add(Capability.ZGC);
+
+		if (version >= 21)
+			s.add(Capability.GENERATIONAL_ZGC);
+
+		if (version >= 12 && description.toLowerCase().contains("shenandoah"))
+			s.add(Capability.SHENANDOAH);
+
+		return s;
+	}
 }
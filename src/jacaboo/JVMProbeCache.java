@@ -0,0 +1,184 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import toools.io.file.RegularFile;
+
+/**
+ * Remembers the JVM found on every node, so that a new start does not need
+ * to probe the nodes again. Every entry stores the modification time of the
+ * JVM executable, which is checked (one command per NAS group) before the
+ * entry is trusted. Entries older than {@value #ttlProperty} seconds (one day
+ * by default) are ignored.
+ */
+public class JVMProbeCache
+{
+	public static final String ttlProperty = "biggrph.jvm.cacheTTL";
+
+	public static class Entry
+	{
+		public final String command;
+		public final int version;
+		public final Set<JVM.Capability> capabilities;
+		public final String path;
+		public final String mtime;
+		public final long probeDate;
+
+		Entry(String command, int version, Set<JVM.Capability> capabilities,
+				String path, String mtime, long probeDate)
+		{
+			this.command = command;
+			this.version = version;
+			this.capabilities = capabilities;
+			this.path = path;
+			this.mtime = mtime;
+			this.probeDate = probeDate;
+		}
+
+		public JVM getJVM()
+		{
+			return new JVM(command, version, capabilities);
+		}
+	}
+
+	private final RegularFile file;
+	private final Map<String, Entry> entries = new HashMap<>();
+	private final long ttlMs = Long.getLong(ttlProperty, 24 * 3600) * 1000;
+
+	public JVMProbeCache(RegularFile file)
+	{
+		this.file = file;
+
+		if (file.exists())
+		{
+			for (String line : new String(file.getContent()).split("\n"))
+			{
+				String[] f = line.split("\t");
+
+				if (f.length == 7)
+				{
+					try
+					{
+						Set<JVM.Capability> capabilities = EnumSet
+								.noneOf(JVM.Capability.class);
+
+						for (String c : f[3].split(","))
+						{
+							if ( ! c.isEmpty())
+							{
+								capabilities.add(JVM.Capability.valueOf(c));
+							}
+						}
+
+						entries.put(f[0], new Entry(f[1], Integer.parseInt(f[2]),
+								capabilities, f[4], f[5], Long.parseLong(f[6])));
+					}
+					catch (IllegalArgumentException e)
+					{
+						// corrupted, or written by another version: the node
+						// will be probed again
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the entry for the given node, or null if there is none or if it
+	 *         has expired
+	 */
+	public synchronized Entry get(SSHNode node)
+	{
+		Entry e = entries.get(node.getSSHName());
+
+		if (e == null || System.currentTimeMillis() - e.probeDate > ttlMs)
+			return null;
+
+		return e;
+	}
+
+	public synchronized void put(SSHNode node, JVM jvm, String mtime)
+	{
+		entries.put(node.getSSHName(), new Entry(jvm.getCommand(), jvm.getVersion(),
+				jvm.getCapabilities(), getPath(jvm), mtime, System.currentTimeMillis()));
+	}
+
+	public synchronized void remove(SSHNode node)
+	{
+		entries.remove(node.getSSHName());
+	}
+
+	public synchronized void save()
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (Map.Entry<String, Entry> me : entries.entrySet())
+		{
+			Entry e = me.getValue();
+			StringBuilder capabilities = new StringBuilder();
+
+			for (JVM.Capability c : e.capabilities)
+			{
+				if (capabilities.length() > 0)
+					capabilities.append(',');
+
+				capabilities.append(c.name());
+			}
+
+			b.append(me.getKey() + "\t" + e.command + "\t" + e.version + "\t"
+					+ capabilities + "\t" + e.path + "\t" + e.mtime + "\t" + e.probeDate
+					+ "\n");
+		}
+
+		file.setContent(b.toString().getBytes());
+	}
+
+	/**
+	 * @return a shell expression of the file of the executable of the given
+	 *         JVM
+	 */
+	static String getPath(JVM jvm)
+	{
+		return jvm.getCommand().indexOf('/') < 0 ? "$(command -v " + jvm.getCommand() + ")"
+				: jvm.getCommand();
+	}
+
+	/**
+	 * @return a shell command printing the modification time of every given
+	 *         file, in order, or "-" for the missing ones
+	 */
+	static String getStatCommand(Iterable<String> paths)
+	{
+		StringBuilder b = new StringBuilder("for p in");
+
+		for (String p : paths)
+		{
+			b.append(" \"" + p + "\"");
+		}
+
+		b.append("; do stat -L -c %Y \"$p\" 2>/dev/null || echo -; done");
+		return b.toString();
+	}
+}
@@ -0,0 +1,111 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sets of JVM options for typical uses. The options depend on what the JVM
+ * of the node can do: for instance the low-latency profile uses ZGC if
+ * available, Shenandoah otherwise, and falls back to G1.
+ */
+public enum JVMProfile
+{
+	/**
+	 * For batch computations: parallel collector, NUMA-aware allocation and
+	 * memory committed upfront.
+	 */
+	THROUGHPUT
+	{
+		@Override
+		public List<String> getParameters(JVM jvm)
+		{
+			List<String> l = new ArrayList<>();
+			l.add("-XX:+UseParallelGC");
+			l.add("-XX:+UseNUMA");
+			l.add("-XX:+AlwaysPreTouch");
+			return l;
+		}
+	},
+
+	/**
+	 * For interactive applications: concurrent collector and memory committed
+	 * upfront.
+	 */
+	LOW_LATENCY
+	{
+		@Override
+		public List<String> getParameters(JVM jvm)
+		{
+			List<String> l = new ArrayList<>();
+
+			if (jvm.has(JVM.Capability.ZGC))
+			{
+				l.add("-XX:+UseZGC");
+
+				// generational by default from Java 23
+				if (jvm.has(JVM.Capability.GENERATIONAL_ZGC) && jvm.getVersion() < 23)
+				{
+					l.add("-XX:+ZGenerational");
+				}
+			}
+			else if (jvm.has(JVM.Capability.SHENANDOAH))
+			{
+				l.add("-XX:+UseShenandoahGC");
+			}
+			else
+			{
+				l.add("-XX:+UseG1GC");
+				l.add("-XX:MaxGCPauseMillis=50");
+			}
+
+			l.add("-XX:+AlwaysPreTouch");
+			return l;
+		}
+	},
+
+	/**
+	 * For short runs and small nodes: serial collector, and no optimizing
+	 * compiler, which saves its threads and memory.
+	 */
+	SMALL_HEAP
+	{
+		@Override
+		public List<String> getParameters(JVM jvm)
+		{
+			List<String> l = new ArrayList<>();
+			l.add("-XX:+UseSerialGC");
+			l.add("-XX:TieredStopAtLevel=1");
+			return l;
+		}
+	};
+
+	public abstract List<String> getParameters(JVM jvm);
+
+	/**
+	 * @param name
+	 *            a profile name like "low-latency"
+	 */
+	public static JVMProfile fromName(String name)
+	{
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
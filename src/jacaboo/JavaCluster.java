@@ -19,13 +19,19 @@
 
 package jacaboo;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import toools.StopWatch;
 import toools.StopWatch.UNIT;
@@ -34,14 +40,36 @@ import toools.extern.ProcessOutput;
 import toools.io.file.Directory;
 import toools.io.file.RegularFile;
 import toools.reflect.ClassPath;
+import toools.reflect.Clazz;
 import toools.text.TextUtilities;
-import toools.thread.OneElementOneThreadProcessing;
 
 public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 {
 	private boolean useSDP = false;
 	private int debugPortBase = - 1;
 	private int maxMemorySizeInMegaBytes = - 1;
+	private boolean pipelinedStartup = Boolean.getBoolean(pipelinedStartupProperty);
+	private boolean agentMode = Boolean.getBoolean(agentModeProperty);
+	private boolean classDataSharing = Boolean.getBoolean(classDataSharingProperty);
+	private ClassPathManifest classPathManifest;
+	private JVMProbeCache jvmProbeCache;
+	private JVM.Requirement jvmRequirement = JVM.anyJVM;
+	private JVM jvmToInstall = JVM.java8oracle;
+	private ResourceSizingPolicy resourceSizing = Boolean.getBoolean(resourceSizingProperty)
+			? ResourceSizingPolicy.defaultPolicy : null;
+	private int jvmsPerNode = Integer.getInteger(jvmsPerNodeProperty, 1);
+	private JVMProfile jvmProfile = System.getProperty(jvmProfileProperty) == null ? null
+			: JVMProfile.fromName(System.getProperty(jvmProfileProperty));
+	private boolean failureDetection = Boolean.getBoolean(failureDetectionProperty);
+	private final FailureDetector<N> failureDetector = new FailureDetector<>();
+
+	public static final String pipelinedStartupProperty = "biggrph.startup.pipelined";
+	public static final String agentModeProperty = "biggrph.agent";
+	public static final String classDataSharingProperty = "biggrph.cds";
+	public static final String jvmProfileProperty = "biggrph.jvm.profile";
+	public static final String resourceSizingProperty = "biggrph.sizing";
+	public static final String jvmsPerNodeProperty = "biggrph.jvm.perNode";
+	public static final String failureDetectionProperty = "biggrph.heartbeat";
 
 	public static final String debugPortBaseVariable = "BGRPH_DEBUGPORT_BASE";
 	public static final String debugPortBaseProperty = "biggrph.debugPort.base";
@@ -67,6 +95,15 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 			throws UnknownHostException
 	{
 		Set<JavaNode> nodeSet = new HashSet<>();
+		List<String> hostnames = new ArrayList<>();
+
+		for (String nodename : nodenames)
+		{
+			hostnames.add(nodename.substring(nodename.indexOf('@') + 1));
+		}
+
+		// all the names are resolved at once, the nodes then hit the cache
+		Resolver.resolveAllOrFail(hostnames, Long.getLong(Resolver.deadlineProperty, 10000));
 
 		for (String nodename : nodenames)
 		{
@@ -80,6 +117,15 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 	{
 		super(frontal, nodeSet);
 
+		failureDetector.addListener(new FailureDetector.Listener<N>()
+		{
+			@Override
+			public void nodeFailed(N node, String reason)
+			{
+				nodeFailedAfterStartup(node, reason);
+			}
+		});
+
 		if (System.getenv(debugPortBaseVariable) != null)
 		{
 			debugPortBase = Integer.parseInt(System.getenv(debugPortBaseVariable));
@@ -100,42 +146,49 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 		}
 	}
 
-	private boolean defaultJVMIsJava8(SSHNode node)
+	/*
+	 * Lists the JVMs of the node: the default one, the ones in the usual
+	 * installation directories and the ones installed in the home directory.
+	 * Every JVM is given once, by the real path of its executable, with its
+	 * version and whether it has Shenandoah (which must be tried, as it
+	 * depends on the build).
+	 */
+	private static final String jvmDiscoveryScript = "seen=\n"
+			+ "for j in \"$(command -v java)\" \"${JAVA_HOME:-/nonexistent}/bin/java\" "
+			+ "/usr/lib/jvm/*/bin/java /usr/java/*/bin/java "
+			+ "${HOME}/jre*/bin/java ${HOME}/jdk*/bin/java; do\n"
+			+ "  [ -x \"$j\" ] || continue\n"
+			+ "  r=$(readlink -f \"$j\")\n"
+			+ "  case \" $seen \" in *\" $r \"*) continue;; esac\n"
+			+ "  seen=\"$seen $r\"\n"
+			+ "  v=$(\"$r\" -version 2>&1 | sed -n 's/.*version \"\\([^\"]*\\)\".*/\\1/p' | head -1)\n"
+			+ "  case \"$v\" in 1.*) s= ;; *) s=$(\"$r\" -XX:+UseShenandoahGC -version "
+			+ ">/dev/null 2>&1 && echo shenandoah) ;; esac\n"
+			+ "  printf '%s\\t%s\\t%s\\n' \"$r\" \"$v\" \"$s\"\n"
+			+ "done\n"
+			+ "exit 0";
+
+	private List<JVM> discoverJVMs(SSHNode node)
 	{
-		// the Bash command that checks if the default "java" command is a v1.8
-		// JVM
-		// it relies on the "--version" standard option of JVMs
-		// works with Oracle JDK and Open JDK
-		// exits 0 if the JDK is v1.8
-		String shCommand = "which java >/dev/null && java -version 2>&1 | egrep -q -e '^.*version[[:space:]]+\"1\\.8\\..+\"$' ; exit $?";
+		List<JVM> jvms = new ArrayList<>();
 
-		List<String> argList = new ArrayList<String>();
-
-		if (getFrontal() != null)
+		for (String line : SSHUtils.execSh(getFrontal(), getTimeoutInSecond(), node,
+				jvmDiscoveryScript))
 		{
-			argList.add(getFrontal().getSSHName());
-			argList.addAll(SSHUtils.getSSHOptions());
-			argList.add(SSHUtils.getSSHCommandName());
-		}
+			String[] f = line.split("\t", - 1);
 
-		argList.addAll(SSHUtils.getSSHOptions());
-		argList.add(node.getSSHName());
-		argList.add("bash");
-		argList.add("--posix");
+			if (f.length == 3)
+			{
+				int version = JVM.parseVersion(f[1]);
 
-		try
-		{
-			// System.out.println("running: " + shCommand + " on node " + node);
-			String initialSSH = (getFrontal() != null ? SSHUtils.sshCommandNameDefault
-					: SSHUtils.getSSHCommandName());
-			ProcessOutput output = Proces.rawExec(initialSSH, shCommand.getBytes(),
-					argList.toArray(new String[argList.size()]));
-			return output.getReturnCode() == 0;
-		}
-		catch (IOException e)
-		{
-			return false;
+				if (version > 0)
+				{
+					jvms.add(new JVM(f[0], version, f[2]));
+				}
+			}
 		}
+
+		return jvms;
 	}
 
 	/**
@@ -178,173 +231,769 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 		}
 	}
 
+	/**
+	 * Sets the JVMs the application can run on. Among the JVMs of a node, the
+	 * most recent one which satisfies this requirement is used. By default,
+	 * any JVM from Java 8 is accepted.
+	 */
+	public void setJVMRequirement(JVM.Requirement jvmRequirement)
+	{
+		this.jvmRequirement = jvmRequirement;
+	}
+
+	public JVM.Requirement getJVMRequirement()
+	{
+		return jvmRequirement;
+	}
+
+	/**
+	 * Sets the JVM which is downloaded on the NAS groups where no node has a
+	 * suitable JVM.
+	 */
+	public void setJVMToInstall(JVM jvmToInstall)
+	{
+		this.jvmToInstall = jvmToInstall;
+	}
+
+	public JVM getJVMToInstall()
+	{
+		return jvmToInstall;
+	}
+
+	/**
+	 * Selects the options of the remote JVMs among predefined profiles. It can
+	 * be set by default with the {@value #jvmProfileProperty} property (for
+	 * instance "low-latency"). No profile is used by default.
+	 */
+	public void setJVMProfile(JVMProfile jvmProfile)
+	{
+		this.jvmProfile = jvmProfile;
+	}
+
+	public JVMProfile getJVMProfile()
+	{
+		return jvmProfile;
+	}
+
+	/**
+	 * Sizes the heap and the threads of the JVM of every node after its
+	 * hardware, which is probed at startup. An explicit maximum memory size
+	 * takes precedence. The default policy can be enabled with the
+	 * {@value #resourceSizingProperty} property.
+	 * 
+	 * @param policy
+	 *            the policy, or null to disable sizing
+	 */
+	public void setResourceSizing(ResourceSizingPolicy policy)
+	{
+		this.resourceSizing = policy;
+	}
+
+	public ResourceSizingPolicy getResourceSizing()
+	{
+		return resourceSizing;
+	}
+
+	/**
+	 * Runs the given number of JVMs on every node, rather than one JVM
+	 * spanning all its sockets. Every JVM is pinned to a NUMA node with
+	 * numactl, or to a share of the CPUs with taskset, when they are
+	 * available, and gets its share of the memory when resources are sized
+	 * (see {@link #setResourceSizing(ResourceSizingPolicy)}). Every JVM is a
+	 * logical node of its own (see {@link JavaNode#getInstances()}) for
+	 * {@link #getMainClass(JavaNode)} and
+	 * {@link #getMainClassParameters(JavaNode)}. In agent mode, nodes run one
+	 * JVM. It can be set by default with the {@value #jvmsPerNodeProperty}
+	 * property.
+	 */
+	public void setJVMsPerNode(int jvmsPerNode)
+	{
+		if (jvmsPerNode < 1)
+			throw new IllegalArgumentException("invalid number of JVMs: " + jvmsPerNode);
+
+		this.jvmsPerNode = jvmsPerNode;
+	}
+
+	public int getJVMsPerNode()
+	{
+		return jvmsPerNode;
+	}
+
 	public void enableDebugging(int debugPortBaseNumber)
 	{
 		debugPortBase = debugPortBaseNumber;
 	}
 
+	/**
+	 * In pipelined mode, every NAS group goes through JVM probing, JVM
+	 * installation, deployment and launch on its own, without waiting for the
+	 * other groups to complete each phase. The startup then takes as long as
+	 * the slowest group, rather than the sum of the slowest node of every
+	 * phase. It can be enabled by default with the
+	 * {@value #pipelinedStartupProperty} property.
+	 */
+	public void setPipelinedStartup(boolean pipelinedStartup)
+	{
+		this.pipelinedStartup = pipelinedStartup;
+	}
+
+	public boolean isPipelinedStartup()
+	{
+		return pipelinedStartup;
+	}
+
+	/**
+	 * In agent mode, applications are run by a {@link NodeAgent} which
+	 * survives the cluster, instead of by a fresh JVM. The first run starts
+	 * the agents, the next ones reuse them as long as the JVM parameters and
+	 * the framework jars are unchanged. It can be enabled by default with the
+	 * {@value #agentModeProperty} property.
+	 */
+	public void setAgentMode(boolean agentMode)
+	{
+		this.agentMode = agentMode;
+	}
+
+	public boolean isAgentMode()
+	{
+		return agentMode;
+	}
+
+	/**
+	 * Enables (which is the default if the {@value #failureDetectionProperty}
+	 * property is true) the monitoring of the nodes once they run the
+	 * application. A node whose JVM stops sending
+	 * heartbeats is discarded from the cluster, see {@link FailureDetector}.
+	 */
+	public void setFailureDetection(boolean failureDetection)
+	{
+		this.failureDetection = failureDetection;
+	}
+
+	public FailureDetector<N> getFailureDetector()
+	{
+		return failureDetector;
+	}
+
+	/**
+	 * Discards the node, and releases its connections in the background.
+	 */
+	protected void nodeFailedAfterStartup(final N node, String reason)
+	{
+		synchronized (this)
+		{
+			if ( ! getNodes().contains(node))
+				return;
+
+			try
+			{
+				discard(node, new IOException(reason));
+			}
+			catch (IllegalStateException e)
+			{
+				System.err.println(e.getMessage());
+			}
+		}
+
+		CompletableFuture.runAsync(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				node.stop();
+			}
+		}, FanOut.getExecutor());
+	}
+
+	/**
+	 * Enables the sharing of the class data of the application between runs.
+	 * On the first run with a given classpath and JVM, one node per NAS group
+	 * dumps the classes it loaded into an archive when its JVM exits. The
+	 * next runs map this archive instead of loading and verifying the
+	 * classes. A new archive is created whenever the classpath changes. JVMs
+	 * which cannot create archives (before Java 13) ignore the option, and so
+	 * do the agents (see {@link #setAgentMode(boolean)}). It can be enabled by
+	 * default with the {@value #classDataSharingProperty} property.
+	 */
+	public void setClassDataSharing(boolean classDataSharing)
+	{
+		this.classDataSharing = classDataSharing;
+	}
+
+	public boolean isClassDataSharing()
+	{
+		return classDataSharing;
+	}
+
+	/**
+	 * Terminates the agents left on the nodes by previous runs in agent mode.
+	 */
+	public void stopAgents()
+	{
+		final String portFile = "${HOME}/" + Binaries.getApplicationName() + "/"
+				+ NodeAgent.getPortFileName(NodeAgent.hostNameExpression);
+
+		new ParallelProcessing<N>(getFanOut(), "agent termination", getNodes())
+		{
+			@Override
+			protected void process(N node) throws Throwable
+			{
+				if ( ! node.isLocalNode())
+				{
+					SSHUtils.execSh(getFrontal(), getTimeoutInSecond(), node,
+							"[ -f " + portFile + " ] && kill $(cut -d' ' -f2 " + portFile
+									+ ") 2>/dev/null; rm -f " + portFile);
+				}
+			}
+		};
+	}
+
 	@Override
 	public void start()
+	{
+		start(null);
+	}
+
+	@Override
+	protected void start(final ClusterStartup<N> startup)
 	{
 		StopWatch sw = new StopWatch(UNIT.ms);
 		super.start();
 
-		// no specific JVM to use
+		ClassPath clp = ClassPath.retrieveSystemClassPath();
+		System.out
+				.println("Deploying Java classes: " + (clp.sizeInBytes() / 1000) + "kb");
+		System.out.println(clp);
+		Binaries.ensureLocalSymLinksToClassPathEntriesAreProperlySet();
+		System.out.println("Links are set");
+		final ClassPathManifest manifest = ClassPathManifest.compute(clp);
+		classPathManifest = manifest;
+		jvmProbeCache = new JVMProbeCache(Binaries.localJVMProbeCacheFile());
+		final RegularFile spdFile = useSDP ? createSDPConfigurationFile() : null;
 
-		new OneElementOneThreadProcessing<N>(getNodes())
+		if (pipelinedStartup)
 		{
-			@Override
-			protected void process(N node) throws Throwable
+			System.out.println("Running distributed application on nodes " + getNodes());
+
+			// the per-node phases are nested in the per-group one, and share
+			// its bound on the number of simultaneous SSH connections
+			new ParallelProcessing<Set<N>>(getFanOut(), "pipelined startup",
+					getNASGroups())
 			{
-				// if the node runs on the local computer
-				if (node.isLocalhost())
+				@Override
+				protected void process(Set<N> group) throws Throwable
 				{
-					// use the same Java as the one on the master
-					String javaVersion = System.getProperty("java.version");
+					String groupName = "NAS group of " + group.iterator().next();
+					useCachedJVMs(group);
 
-					if (javaVersion.startsWith("1.8."))
+					new ParallelProcessing<N>(getFanOut(), "JVM probing in " + groupName,
+							group)
 					{
-						node.jvm = JVM.currentJava;
-						System.out.println(
-								"Node " + node + ": current JVM has correct version.");
-					}
-					else
+						@Override
+						protected void process(N node) throws Throwable
+						{
+							probeJVM(node);
+							probeHardwareIfNeeded(node);
+						}
+					};
+
+					installJVMIfNeeded(group);
+					cacheJVMs(group);
+					deployClassPath(manifest, group);
+
+					if (spdFile != null)
 					{
-						throw new IllegalStateException(
-								"unsupported JVM version " + javaVersion);
+						deploy(spdFile, spdFile.getParent()
+								.getNameRelativeTo(Directory.getHomeDirectory()), group);
 					}
+
+					new ParallelProcessing<N>(getFanOut(),
+							"application launch in " + groupName, group)
+					{
+						@Override
+						protected void process(N node) throws Throwable
+						{
+							launch(node, startup);
+						}
+					};
+				}
+			};
+
+			if (spdFile != null)
+			{
+				spdFile.delete();
+			}
+
+			jvmProbeCache.save();
+			System.out.println(TextUtilities.box("Pipelined startup took " + sw));
+			System.out.println(getStartupMetrics());
+		}
+		else
+		{
+			new ParallelProcessing<Set<N>>(getFanOut(), "JVM cache validation",
+					getNASGroups())
+			{
+				@Override
+				protected void process(Set<N> group)
+				{
+					useCachedJVMs(group);
 				}
-				else
+			};
+
+			new ParallelProcessing<N>(getFanOut(), "JVM probing", getNodes())
+			{
+				@Override
+				protected void process(N node) throws Throwable
 				{
-					// checks by SSH if the default java command on the
-					// slave node complies
-					if (defaultJVMIsJava8(node))
-					{
-						node.jvm = JVM.defaultJava;
-						System.out.println(
-								"Node " + node + ": default JVM has correct version.");
-					}
-					else
+					probeDefaultJVM(node);
+				}
+			};
+
+			if (resourceSizing != null)
+			{
+				new ParallelProcessing<N>(getFanOut(), "hardware probing", getNodes())
+				{
+					@Override
+					protected void process(N node) throws Throwable
 					{
-						System.err.println("Node " + node
-								+ ": default JVM not found or incorrect version.");
+						probeHardwareIfNeeded(node);
 					}
+				};
+			}
+
+			// non-local nodes
+			new ParallelProcessing<N>(getFanOut(), "JVM lookup", getNodes())
+			{
+				@Override
+				protected void process(N node) throws Throwable
+				{
+					lookupInstalledJVM(node);
+				}
+			};
 
+			new ParallelProcessing<Set<N>>(getFanOut(), "JVM installation",
+					getNASGroups())
+			{
+				@Override
+				protected void process(Set<N> group)
+				{
+					installJVMIfNeeded(group);
+					cacheJVMs(group);
 				}
+			};
+
+			jvmProbeCache.save();
+			deployClassPath(manifest);
+
+			if (spdFile != null)
+			{
+				deploy(spdFile);
+				spdFile.delete();
 			}
-		};
 
-		// non-local nodes
-		new OneElementOneThreadProcessing<N>(getNodes())
+			System.out.println(TextUtilities.box("Code deployment took " + sw));
+
+			sw.reset();
+
+			System.out.println("Running distributed application on nodes " + getNodes());
+
+			new ParallelProcessing<N>(getFanOut(), "application launch", getNodes())
+			{
+				@Override
+				protected void process(N node) throws Throwable
+				{
+					launch(node, startup);
+				}
+			};
+
+			System.out.println(TextUtilities.box("RPC services startup took " + sw));
+			System.out.println(getStartupMetrics());
+		}
+	}
+
+	/**
+	 * Starts the nodes added to the running cluster, one NAS group after the
+	 * other as in the pipelined startup. The classpath is deployed only to the
+	 * groups which are new, since the other ones already have it.
+	 */
+	@Override
+	protected void startNewNodes(Map<Set<N>, Set<N>> newcomers)
+	{
+		StopWatch sw = new StopWatch(UNIT.ms);
+
+		try
 		{
-			@Override
-			protected void process(N node) throws Throwable
+			new ParallelProcessing<Map.Entry<Set<N>, Set<N>>>(getFanOut(), "growth",
+					newcomers.entrySet())
 			{
-				if (node.jvm == null)
+				@Override
+				protected void process(Map.Entry<Set<N>, Set<N>> e) throws Throwable
 				{
-					if (checkJVM(node, JVM.java8oracle))
+					Set<N> group = e.getKey();
+					Set<N> nodes = e.getValue();
+					String groupName = "NAS group of " + group.iterator().next();
+					useCachedJVMs(nodes);
+
+					new ParallelProcessing<N>(getFanOut(), "JVM probing in " + groupName,
+							nodes)
+					{
+						@Override
+						protected void process(N node) throws Throwable
+						{
+							probeJVM(node);
+							probeHardwareIfNeeded(node);
+						}
+					};
+
+					installJVMIfNeeded(nodes);
+					cacheJVMs(nodes);
+
+					if (nodes.size() == group.size())
 					{
-						node.jvm = new JVM("${HOME}/" + JVM.java8oracle.getCommand());
-						System.out.println(
-								"Node " + node + ": found JVM " + node.jvm.getCommand());
+						deployClassPath(classPathManifest, group);
 					}
+
+					new ParallelProcessing<N>(getFanOut(),
+							"application launch in " + groupName, nodes)
+					{
+						@Override
+						protected void process(N node) throws Throwable
+						{
+							launch(node, null);
+						}
+					};
 				}
+			};
+		}
+		catch (RuntimeException e)
+		{
+			// the cluster discards the new nodes, none of them must keep running
+			Set<N> nodes = new HashSet<>();
+
+			for (Set<N> s : newcomers.values())
+			{
+				nodes.addAll(s);
 			}
-		};
 
-		new OneElementOneThreadProcessing<Set<N>>(getNASGroups())
-		{
-			@Override
-			protected void process(Set<N> group)
+			try
 			{
-				// if one node in the group has no jvm, setup by using a
-				// downloaded one and use it for all nodes in the group.
-				boolean noJVM = false;
-				for (N node : group)
+				new ParallelProcessing<N>(getFanOut(), "growth rollback", nodes)
 				{
-					if (node.jvm == null)
+					@Override
+					protected void process(N node) throws Throwable
 					{
-						noJVM = true;
-						break;
+						failureDetector.unwatch(node);
+						node.stop();
 					}
+				};
+			}
+			catch (RuntimeException stopFailure)
+			{
+				e.addSuppressed(stopFailure);
+			}
+
+			throw e;
+		}
+
+		jvmProbeCache.save();
+		System.out.println(TextUtilities.box("Growth took " + sw));
+	}
+
+	private void launch(N node, ClusterStartup<N> startup) throws Throwable
+	{
+		try
+		{
+			runClass(node);
+		}
+		catch (Throwable t)
+		{
+			if (startup != null)
+			{
+				startup.nodeFailed(node, t);
+			}
+
+			throw t;
+		}
+
+		if (failureDetection && ! node.isLocalNode())
+		{
+			if (node.getInstances().isEmpty())
+			{
+				failureDetector.watch(node, node);
+			}
+			else
+			{
+				for (JavaNode instance : node.getInstances())
+				{
+					failureDetector.watch(node, instance);
 				}
-				if (noJVM)
+			}
+		}
+
+		if (startup != null)
+		{
+			startup.nodeStarted(node);
+		}
+	}
+
+	protected void probeJVM(N node)
+	{
+		probeDefaultJVM(node);
+		lookupInstalledJVM(node);
+	}
+
+	/**
+	 * Probes the hardware of the node, if needed to size its JVM.
+	 */
+	protected void probeHardwareIfNeeded(N node)
+	{
+		if (resourceSizing != null && node.getInventory() == null
+				&& ! node.isLocalNode())
+		{
+			long t = System.nanoTime();
+			node.probeInventory(getFrontal(), getTimeoutInSecond());
+			getStartupMetrics().recordSince(StartupMetrics.HARDWARE_PROBE, node, t);
+			System.out.println("Node " + node + ": " + node.getInventory());
+		}
+	}
+
+	protected void probeDefaultJVM(N node)
+	{
+		// found in the cache
+		if (node.jvm != null)
+			return;
+
+		long t = System.nanoTime();
+
+		// if the node runs on the local computer
+		if (node.isLocalhost())
+		{
+			// use the same Java as the one on the master
+			if (jvmRequirement.accepts(JVM.currentJava))
+			{
+				node.jvm = JVM.currentJava;
+				System.out.println("Node " + node + ": current JVM has correct version.");
+			}
+			else
+			{
+				throw new IllegalStateException("unsupported JVM " + JVM.currentJava
+						+ ", " + jvmRequirement + " is required");
+			}
+		}
+		else
+		{
+			// the most recent JVM of the node which complies
+			for (JVM jvm : discoverJVMs(node))
+			{
+				if (jvmRequirement.accepts(jvm)
+						&& (node.jvm == null || jvm.getVersion() > node.jvm.getVersion()))
 				{
-					N installNode = group.iterator().next();
-					JVM jvmToDownload = JVM.java8oracle;
-					String shText = "cd ${HOME} && wget -c -nv "
-							+ jvmToDownload.getDownloadOptions() + " "
-							+ jvmToDownload.getDownloadLink() + " -O "
-							+ jvmToDownload.getArchiveName() + " && tar xzf "
-							+ jvmToDownload.getArchiveName();
-					// System.out.println("running: " + shText + " on node " +
-					// installNode);
-					SSHUtils.execSh(getFrontal(), getTimeoutInSecond(), installNode,
-							shText);
-					JVM installedJvm = new JVM("${HOME}/" + jvmToDownload.getCommand());
-					for (N node : group)
-					{
-						node.jvm = installedJvm;
-						System.out.println("Node " + node + ": installed JVM is "
-								+ node.jvm.getCommand());
-					}
+					node.jvm = jvm;
 				}
 			}
-		};
 
-		ClassPath clp = ClassPath.retrieveSystemClassPath();
-		System.out
-				.println("Deploying Java classes: " + (clp.sizeInBytes() / 1000) + "kb");
-		System.out.println(clp);
-		Binaries.ensureLocalSymLinksToClassPathEntriesAreProperlySet();
-		System.out.println("Links are set");
-		deploy(Binaries.localBinariesDir(), Binaries.jarDirectoryPathRelativeToHomedir());
+			if (node.jvm == null)
+			{
+				System.err.println("Node " + node + ": no JVM satisfies "
+						+ jvmRequirement);
+			}
+			else
+			{
+				System.out.println("Node " + node + ": selected JVM " + node.jvm);
+			}
+		}
 
-		if (useSDP)
+		getStartupMetrics().recordSince(StartupMetrics.JVM_PROBE, node, t);
+	}
+
+	protected void lookupInstalledJVM(N node)
+	{
+		if (node.jvm == null)
+		{
+			long t = System.nanoTime();
+
+			// an installed JVM which does not meet the requirement is ignored
+			if (jvmRequirement.accepts(jvmToInstall) && checkJVM(node, jvmToInstall))
+			{
+				node.jvm = getInstalledJVM();
+				System.out.println("Node " + node + ": found JVM " + node.jvm.getCommand());
+			}
+
+			getStartupMetrics().recordSince(StartupMetrics.JVM_PROBE, node, t);
+		}
+	}
+
+	/**
+	 * Takes the JVM of the nodes of the given NAS group from the cache, if
+	 * their executable did not change since they were probed. This is checked
+	 * on one node, as the nodes of a NAS group are assumed to be installed
+	 * the same way.
+	 */
+	protected void useCachedJVMs(Set<N> group)
+	{
+		List<N> nodes = new ArrayList<>();
+		List<JVMProbeCache.Entry> entries = new ArrayList<>();
+		List<String> paths = new ArrayList<>();
+
+		for (N node : group)
 		{
-			String spdConf = "";
+			JVMProbeCache.Entry e = node.isLocalhost() ? null : jvmProbeCache.get(node);
 
-			for (N n : getNodes())
+			if (e != null)
 			{
-				spdConf += "bind " + n.getInetAddress().getHostAddress() + " *\n";
+				nodes.add(node);
+				entries.add(e);
+				paths.add(e.path);
 			}
+		}
+
+		if (nodes.isEmpty())
+			return;
+
+		long t = System.nanoTime();
+		List<String> mtimes = SSHUtils.execSh(getFrontal(), getTimeoutInSecond(),
+				nodes.get(0), JVMProbeCache.getStatCommand(paths));
 
-			for (N n : getNodes())
+		for (int i = 0; i < nodes.size(); ++i)
+		{
+			N node = nodes.get(i);
+			JVMProbeCache.Entry e = entries.get(i);
+
+			if (i < mtimes.size() && mtimes.get(i).trim().equals(e.mtime)
+					&& jvmRequirement.accepts(e.getJVM()))
+			{
+				node.jvm = e.getJVM();
+				getStartupMetrics().recordSince(StartupMetrics.JVM_PROBE, node, t);
+			}
+			else
 			{
-				spdConf += "connect " + n.getInetAddress().getHostAddress() + " *\n";
+				jvmProbeCache.remove(node);
 			}
+		}
+	}
 
-			RegularFile spdFile = new RegularFile(Directory.getSystemTempDirectory(),
-					"sdp.conf");
-				spdFile.setContent(spdConf.getBytes());
+	/**
+	 * Stores the JVM of the nodes of the given NAS group which were not
+	 * found in the cache.
+	 */
+	protected void cacheJVMs(Set<N> group)
+	{
+		List<N> nodes = new ArrayList<>();
+		List<String> paths = new ArrayList<>();
+
+		for (N node : group)
+		{
+			if (node.jvm != null && ! node.isLocalhost())
+			{
+				JVMProbeCache.Entry e = jvmProbeCache.get(node);
 
-			deploy(spdFile);
-			spdFile.delete();
+				if (e == null || ! e.command.equals(node.jvm.getCommand()))
+				{
+					nodes.add(node);
+					paths.add(JVMProbeCache.getPath(node.jvm));
+				}
+			}
 		}
 
-		System.out.println(TextUtilities.box("Code deployment took " + sw));
+		if (nodes.isEmpty())
+			return;
 
-		sw.reset();
+		List<String> mtimes = SSHUtils.execSh(getFrontal(), getTimeoutInSecond(),
+				nodes.get(0), JVMProbeCache.getStatCommand(paths));
 
-		System.out.println("Running distributed application on nodes " + getNodes());
+		for (int i = 0; i < nodes.size() && i < mtimes.size(); ++i)
+		{
+			String mtime = mtimes.get(i).trim();
 
-		new OneElementOneThreadProcessing<N>(getNodes())
+			if ( ! mtime.equals("-"))
+			{
+				jvmProbeCache.put(nodes.get(i), nodes.get(i).jvm, mtime);
+			}
+		}
+	}
+
+	private JVM getInstalledJVM()
+	{
+		return new JVM("${HOME}/" + jvmToInstall.getCommand(), jvmToInstall.getVersion(),
+				jvmToInstall.getCapabilities());
+	}
+
+	protected void installJVMIfNeeded(Set<N> group)
+	{
+		// if one node in the group has no jvm, setup by using a
+		// downloaded one and use it for all nodes in the group.
+		boolean noJVM = false;
+		for (N node : group)
 		{
-			@Override
-			protected void process(N node) throws Throwable
+			if (node.jvm == null)
 			{
-				runClass(node);
+				noJVM = true;
+				break;
 			}
-		};
+		}
+		if (noJVM)
+		{
+			if ( ! jvmRequirement.accepts(jvmToInstall))
+				throw new IllegalStateException("unsupported JVM " + jvmToInstall + ", "
+						+ jvmRequirement + " is required");
+
+			long t = System.nanoTime();
+			N installNode = group.iterator().next();
+			JVM jvmToDownload = jvmToInstall;
+			String shText = "cd ${HOME} && wget -c -nv "
+					+ jvmToDownload.getDownloadOptions() + " "
+					+ jvmToDownload.getDownloadLink() + " -O "
+					+ jvmToDownload.getArchiveName() + " && tar xzf "
+					+ jvmToDownload.getArchiveName();
+			// System.out.println("running: " + shText + " on node " +
+			// installNode);
+			SSHUtils.execSh(getFrontal(), getTimeoutInSecond(), installNode, shText);
+			getStartupMetrics().recordSince(StartupMetrics.JVM_INSTALL, installNode, t);
+			JVM installedJvm = getInstalledJVM();
+			for (N node : group)
+			{
+				node.jvm = installedJvm;
+				System.out.println(
+						"Node " + node + ": installed JVM is " + node.jvm.getCommand());
+			}
+		}
+	}
+
+	private RegularFile createSDPConfigurationFile()
+	{
+		String spdConf = "";
+
+		for (N n : getNodes())
+		{
+			spdConf += "bind " + n.getInetAddress().getHostAddress() + " *\n";
+		}
+
+		for (N n : getNodes())
+		{
+			spdConf += "connect " + n.getInetAddress().getHostAddress() + " *\n";
+		}
+
+		RegularFile spdFile = new RegularFile(Directory.getSystemTempDirectory(),
+				"sdp.conf");
+		spdFile.setContent(spdConf.getBytes());
+		return spdFile;
+	}
 
-		System.out.println(TextUtilities.box("RPC services startup took " + sw));
+	@Override
+	public CompletableFuture<Void> stopAsync()
+	{
+		// the nodes are about to go silent
+		failureDetector.shutdown();
+		return super.stopAsync();
 	}
 
 	public void stop()
 	{
-		for (SSHNode node : getNodes())
+		stopAsync().join();
+
+		if (getFrontal() != null)
 		{
-			node.stop();
+			SSHUtils.closeMasterConnection(SSHUtils.sshCommandNameDefault, getFrontal());
 		}
 	}
 
@@ -374,37 +1023,235 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 			targetNode.run(getMainClass(targetNode).newInstance(),
 					getMainClassParameters(targetNode));
 		}
+		else if (jvmsPerNode > 1 && ! agentMode)
+		{
+			for (JavaNode instance : targetNode.createInstances(jvmsPerNode))
+			{
+				runJVM(instance);
+			}
+		}
 		else
 		{
-			List<String> cmdLine = new ArrayList<>();
+			runJVM(targetNode);
+		}
+	}
+
+	private void runJVM(JavaNode targetNode) throws IOException
+	{
+		List<String> cmdLine = new ArrayList<>();
 
-			if ( ! targetNode.isLocalhost())
+		if ( ! targetNode.isLocalhost())
+		{
+			if (getFrontal() != null)
 			{
-				if (getFrontal() != null)
-				{
-					cmdLine.add(SSHUtils.getSSHCommandName());
-					cmdLine.add("-o");
-					cmdLine.add("ForwardX11=no");
-					cmdLine.add(getFrontal().getSSHName());
-				}
+				cmdLine.add(SSHUtils.sshCommandNameDefault);
+				cmdLine.addAll(SSHUtils.getSSHOptions());
+				cmdLine.add(getFrontal().getSSHName());
+			}
+
+			cmdLine.add(SSHUtils.getSSHCommandName());
+			cmdLine.addAll(SSHUtils.getSSHOptions(getTimeoutInSecond()));
+			cmdLine.add(targetNode.getSSHName());
+		}
+
+		cmdLine.add("bash");
+		cmdLine.add("--posix");
 
-				cmdLine.add(SSHUtils.getSSHCommandName());
-				cmdLine.addAll(SSHUtils.getSSHOptions(getTimeoutInSecond()));
-				cmdLine.add(targetNode.getSSHName());
+		long startNs = System.nanoTime();
+		targetNode.exec(cmdLine);
+		targetNode.getControlChannel()
+				.setStartupListener(new StartupStepListener(targetNode, startNs));
+
+		// a control frame, so that it does not show in the output
+		targetNode.writeToStdin("echo '"
+				+ ControlProtocol.toLine(ControlProtocol.CONNECTED, new byte[0]) + "'");
+
+		if (agentMode)
+		{
+			targetNode.writeToStdin(getAgentConnectionScript(targetNode));
+			Class<? extends RemoteMain> main = getMainClass(targetNode);
+
+			// sent as soon as the agent session is ready
+			if (main != null)
+			{
+				targetNode.getControlChannel().start(main,
+						getMainClassParameters(targetNode));
 			}
+		}
+		else
+		{
+			String command = TextUtilities
+					.concatene(getJavaCmdLineElements(targetNode), " ");
 
-			cmdLine.add("bash");
-			cmdLine.add("--posix");
+			if (targetNode.getInstanceCount() > 1)
+			{
+				command = getPinningCommand(targetNode) + " " + command;
+			}
 
-			targetNode.exec(cmdLine);
+			// the shell must not outlive the JVM, or it would read what is
+			// sent to the JVM after its exit as commands
+			if (isClassDataSharingTrainer(targetNode))
+			{
+				// the archive is published only once it is complete
+				String archive = getClassDataArchive(targetNode);
+				command += "; s=$?; [ -f " + archive + ".$$.tmp ] && mv -f " + archive
+						+ ".$$.tmp " + archive + "; exit $s";
+			}
+			else
+			{
+				command = "exec " + command;
+			}
 
-			String command = TextUtilities.concatene(getJavaCmdLineElements(targetNode),
-					" ");
 			System.out.println(targetNode + ": " + command);
 			targetNode.writeToStdin(command);
 		}
 	}
 
+	/**
+	 * Evaluates on the node to the command which binds the JVM to its NUMA
+	 * node (round-robin, if there are more JVMs than NUMA nodes) or to its
+	 * share of the CPUs, or to nothing if the node does not allow it.
+	 */
+	private static String getPinningCommand(JavaNode node)
+	{
+		int i = node.getInstanceIndex();
+		int k = node.getInstanceCount();
+		return "$(n=$(numactl --hardware 2>/dev/null | awk '/^available:/ { print $2 }'); "
+				+ "c=$(nproc); "
+				+ "if [ \"${n:-0}\" -gt 1 ]; then echo numactl --cpunodebind=$((" + i
+				+ " % n)) --membind=$((" + i + " % n)); "
+				+ "elif command -v taskset >/dev/null && [ " + k + " -le $c ]; then "
+				+ "echo taskset -c $((" + i + " * c / " + k + "))-$(((" + i + " + 1) * c / "
+				+ k + " - 1)); fi)";
+	}
+
+	/**
+	 * Connects the shell to the agent of the node, starting it first if none
+	 * is running or if it runs with a different key. The session starts with
+	 * the secret of the agent, taken from its port file. Bash reads its script
+	 * byte after byte, so what follows on stdin is left to the bridge to the
+	 * agent.
+	 */
+	private String getAgentConnectionScript(JavaNode node)
+	{
+		List<String> agentCmd = new ArrayList<>();
+		agentCmd.add(node.jvm.getCommand());
+		List<String> vmParms = getRemoteVirtualMachineParameters(node);
+
+		// the agent is killed rather than stopped, so it would never publish
+		// a class data archive. Its sessions load the application in class
+		// loaders of their own, which archives do not cover anyway.
+		if (classDataSharing && classPathManifest != null)
+		{
+			vmParms.removeAll(getClassDataSharingParameters(node));
+		}
+
+		agentCmd.addAll(vmParms);
+		agentCmd.add(NodeAgent.class.getName());
+		agentCmd.add(Binaries.getApplicationName());
+		String key = getAgentKey(agentCmd);
+		agentCmd.add(key);
+		agentCmd.add(NodeAgent.hostNameExpression);
+
+		String dir = "${HOME}/" + Binaries.getApplicationName();
+		String portFile = dir + "/"
+				+ NodeAgent.getPortFileName(NodeAgent.hostNameExpression);
+		String command = TextUtilities.concatene(agentCmd, " ");
+		System.out.println(node + ": agent " + command);
+
+		StringBuilder b = new StringBuilder();
+		b.append("read port pid key secret 2>/dev/null < " + portFile + "\n");
+		b.append("if [ \"$key\" != " + key + " ] || ! (exec 3<>/dev/tcp/127.0.0.1/$port) "
+				+ "2>/dev/null; then\n");
+		b.append("  [ -n \"$pid\" ] && kill $pid 2>/dev/null\n");
+		b.append("  rm -f " + portFile + "\n");
+		b.append("  nohup " + command + " > " + dir + "/"
+				+ NodeAgent.getLogFileName(NodeAgent.hostNameExpression)
+				+ " 2>&1 < /dev/null &\n");
+		b.append("  for i in $(seq 600); do [ -s " + portFile
+				+ " ] && break; sleep 0.1; done\n");
+		b.append("  read port pid key secret < " + portFile + "\n");
+		b.append("fi\n");
+		// one line, since bash no longer reads its script once stdin goes to
+		// the agent. Whichever side closes first ends the other one.
+		b.append("exec 3<>/dev/tcp/127.0.0.1/$port 4<&0; echo $secret >&3; ");
+		b.append("cat <&3 & r=$!; ");
+		b.append("{ cat <&4 2>/dev/null; kill $r 2>/dev/null; } >&3 2>/dev/null & ");
+		b.append("wait $r; exit");
+		return b.toString();
+	}
+
+	/**
+	 * The agent must be restarted when its command line changes, or when the
+	 * classes it shares with the applications (the framework) change.
+	 */
+	private String getAgentKey(List<String> agentCmd)
+	{
+		StringBuilder b = new StringBuilder(TextUtilities.concatene(agentCmd, " "));
+
+		for (Class<?> c : Arrays.asList(NodeAgent.class, Clazz.class))
+		{
+			CodeSource cs = c.getProtectionDomain().getCodeSource();
+
+			if (cs != null)
+			{
+				try
+				{
+					File src = new File(cs.getLocation().toURI());
+					ClassPathManifest.Entry e = classPathManifest == null ? null
+							: classPathManifest.getEntry(src);
+					b.append(' ');
+					b.append(e == null ? src.lastModified() : e.hash);
+				}
+				catch (URISyntaxException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		return ClassPathManifest.sha1(b.toString());
+	}
+
+	/**
+	 * Measures the time to get a shell on the node and the time to reach the
+	 * main method of the application, from the control frames sent at these
+	 * steps. It goes once both are reached.
+	 */
+	private class StartupStepListener implements ControlChannel.StartupListener
+	{
+		private final JavaNode node;
+		private final long startNs;
+		private boolean connected, mainStarted;
+
+		StartupStepListener(JavaNode node, long startNs)
+		{
+			this.node = node;
+			this.startNs = startNs;
+		}
+
+		@Override
+		public synchronized void startupStepReached(SSHNode from, byte step)
+		{
+			if ( ! connected && step == ControlProtocol.CONNECTED)
+			{
+				connected = true;
+				getStartupMetrics().recordSince(StartupMetrics.SSH_CONNECT, node, startNs);
+			}
+			else if ( ! mainStarted && step == ControlProtocol.MAIN_STARTED)
+			{
+				mainStarted = true;
+				getStartupMetrics().recordSince(StartupMetrics.MAIN_STARTED, node,
+						startNs);
+			}
+
+			if (connected && mainStarted)
+			{
+				from.getControlChannel().setStartupListener(null);
+			}
+		}
+	}
+
 	private List<String> getJavaCmdLineElements(JavaNode node)
 	{
 		List<String> argList = new ArrayList<>();
@@ -456,8 +1303,19 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 		// if the user has defined -Xmx programmatically
 		if (maxMemorySizeInMegaBytes > 0)
 		{
-			argList.add("-Xmx" + maxMemorySizeInMegaBytes + "M");
-			argList.add("-Xms" + maxMemorySizeInMegaBytes + "M");
+			// the memory is for the node, whatever its number of JVMs
+			int share = node instanceof JavaNode ? ((JavaNode) node).getInstanceCount()
+					: 1;
+			int heap = Math.max(64, maxMemorySizeInMegaBytes / share);
+			argList.add("-Xmx" + heap + "M");
+			argList.add("-Xms" + heap + "M");
+		}
+		else if (resourceSizing != null && node.getInventory() != null)
+		{
+			int share = node instanceof JavaNode ? ((JavaNode) node).getInstanceCount()
+					: 1;
+			argList.addAll(resourceSizing.getParameters(node.getInventory(), share,
+					node instanceof JavaNode ? ((JavaNode) node).jvm : null));
 		}
 
 		if (useSDP)
@@ -468,6 +1326,10 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 			argList.add("-Dcom.sun.sdp.conf=$HOME/sdp.conf");
 		}
 
+		// the nodes must beat at the pace the detector expects
+		argList.add("-D" + MainClassRunner.heartbeatIntervalProperty + "="
+				+ failureDetector.getIntervalMs());
+
 		if (debugPortBase > 0)
 		{
 			/*
@@ -494,12 +1356,95 @@ public abstract class JavaCluster<N extends JavaNode> extends NASCluster<N>
 		assert (assertsEnabled = true) == true;
 		argList.add(assertsEnabled ? "-ea" : "-da");
 
+		JVM jvm = node instanceof JavaNode ? ((JavaNode) node).jvm : null;
+
+		if (jvmProfile != null && jvm != null)
+		{
+			argList.addAll(jvmProfile.getParameters(jvm));
+		}
+
+		// the options of dynamic archives appeared in 13
+		if (classDataSharing && classPathManifest != null && jvm != null
+				&& jvm.has(JVM.Capability.DYNAMIC_CDS))
+		{
+			argList.addAll(getClassDataSharingParameters(node));
+		}
+
 		argList.add("-classpath");
 		argList.add("$(echo ${HOME}/" + Binaries.jarDirectoryPathRelativeToHomedir()
 				+ "/* | sed 's/ /:/g')");
 		return argList;
 	}
 
+	/**
+	 * The archive is evaluated by the shell, as it may not exist yet. Its
+	 * name depends on the JVM and on the content of the classpath, so that an
+	 * obsolete archive is never used.
+	 */
+	private List<String> getClassDataSharingParameters(SSHNode node)
+	{
+		String archive = getClassDataArchive(node);
+		String use = "echo -XX:SharedArchiveFile=" + archive + " -Xshare:auto";
+		List<String> argList = new ArrayList<>();
+
+		if (isClassDataSharingTrainer(node))
+		{
+			// the archives of previous classpaths are removed
+			String dir = archive.substring(0, archive.lastIndexOf('/'));
+			String prefix = getClassDataArchivePrefix(node);
+			argList.add("$(mkdir -p " + dir + "; find " + dir + " -name '" + prefix
+					+ "*' ! -name '" + prefix + classPathManifest.getHash()
+					+ ".jsa' -delete; [ -f " + archive + " ] && " + use
+					+ " || echo -XX:ArchiveClassesAtExit=" + archive + ".$$.tmp)");
+		}
+		else
+		{
+			argList.add("$([ -f " + archive + " ] && " + use + ")");
+		}
+
+		return argList;
+	}
+
+	private String getClassDataArchive(SSHNode node)
+	{
+		return "${HOME}/" + Binaries.cdsDirectoryPathRelativeToHomedir() + "/"
+				+ getClassDataArchivePrefix(node) + classPathManifest.getHash() + ".jsa";
+	}
+
+	private static String getClassDataArchivePrefix(SSHNode node)
+	{
+		JVM jvm = node instanceof JavaNode ? ((JavaNode) node).jvm : null;
+		String cmd = jvm == null ? "java" : jvm.getCommand();
+		return ClassPathManifest.sha1(cmd).substring(0, 8) + "-";
+	}
+
+	/**
+	 * The NAS group shares its archive, which is created by its first node.
+	 */
+	private boolean isClassDataSharingTrainer(SSHNode node)
+	{
+		if ( ! classDataSharing || classPathManifest == null)
+			return false;
+
+		// one of the JVMs of the node
+		if (node instanceof JavaNode && ((JavaNode) node).getPhysicalNode() != null)
+		{
+			JavaNode instance = (JavaNode) node;
+			return instance.getInstanceIndex() == 0
+					&& isClassDataSharingTrainer(instance.getPhysicalNode());
+		}
+
+		for (Set<N> g : getNASGroups())
+		{
+			if (g.contains(node))
+			{
+				return g.iterator().next() == node;
+			}
+		}
+
+		return false;
+	}
+
 	public List<String> getMainClassParameters(JavaNode n)
 	{
 		return new ArrayList<String>();
@@ -1,14 +1,32 @@
 package jacaboo;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class JavaNode extends SSHNode
 {
+	static final long serialVersionUID = 0L;
+
+	public static final String stopDeadlineProperty = "biggrph.stop.deadline";
+
+	// how long the application is given to stop by itself before its JVM is
+	// killed
+	private long stopDeadlineMs = Long.getLong(stopDeadlineProperty, 5000);
+
 	private RemoteMain runningMain;
 	public JVM jvm;
 
+	// when several JVMs run on the same computer
+	private JavaNode physicalNode;
+	private int instanceIndex = 0;
+	private int instanceCount = 1;
+	private final List<JavaNode> instances = new ArrayList<>();
+
 	/**
 	 * For serialization. Do not use.
 	 */
@@ -30,6 +48,137 @@ public class JavaNode extends SSHNode
 	{
 		super(addr);
 	}
+
+	/**
+	 * Creates one of the JVMs running on the given node.
+	 */
+	protected JavaNode(JavaNode physicalNode, int instanceIndex, int instanceCount)
+	{
+		super(physicalNode.getInetAddress(), physicalNode.getLoginName());
+		this.physicalNode = physicalNode;
+		this.instanceIndex = instanceIndex;
+		this.instanceCount = instanceCount;
+		this.jvm = physicalNode.jvm;
+		this.stopDeadlineMs = physicalNode.stopDeadlineMs;
+		setInventory(physicalNode.getInventory());
+
+		// the console prefix was computed before the instance was known
+		getStdoutLinesListeners().clear();
+		getStdoutLinesListeners()
+				.add(new ToStreamLineReceiver(System.out, "> " + this + ": "));
+		getStderrLinesListeners().clear();
+		getStderrLinesListeners()
+				.add(new ToStreamLineReceiver(System.err, "> " + this + ": "));
+	}
+
+	/**
+	 * Replaces the JVMs of this node by the given number of new ones.
+	 * 
+	 * @return the new JVMs, which are logical nodes of their own
+	 */
+	public List<JavaNode> createInstances(int count)
+	{
+		instances.clear();
+
+		for (int i = 0; i < count; ++i)
+		{
+			instances.add(new JavaNode(this, i, count));
+		}
+
+		return getInstances();
+	}
+
+	/**
+	 * @return the JVMs running on this node, if there are several, or an empty
+	 *         list
+	 */
+	public List<JavaNode> getInstances()
+	{
+		return Collections.unmodifiableList(instances);
+	}
+
+	/**
+	 * @return the node this JVM runs on, or null if this node is a computer
+	 */
+	public JavaNode getPhysicalNode()
+	{
+		return physicalNode;
+	}
+
+	public long getStopDeadlineMs()
+	{
+		return stopDeadlineMs;
+	}
+
+	/**
+	 * Sets how long the application is given to stop by itself before its JVM
+	 * is killed. The default is given by the {@value #stopDeadlineProperty}
+	 * property, in milliseconds (5s by default).
+	 */
+	public void setStopDeadlineMs(long stopDeadlineMs)
+	{
+		this.stopDeadlineMs = stopDeadlineMs;
+	}
+
+	public int getInstanceIndex()
+	{
+		return instanceIndex;
+	}
+
+	public int getInstanceCount()
+	{
+		return instanceCount;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return super.equals(o) && ( ! (o instanceof JavaNode)
+				|| ((JavaNode) o).instanceIndex == instanceIndex);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * super.hashCode() + instanceIndex;
+	}
+
+	@Override
+	public int compareTo(HardwareNode o)
+	{
+		int c = super.compareTo(o);
+
+		if (c == 0 && o instanceof JavaNode)
+		{
+			c = Integer.compare(instanceIndex, ((JavaNode) o).instanceIndex);
+		}
+
+		return c;
+	}
+
+	@Override
+	protected void write(NodeCodec.Writer w) throws IOException
+	{
+		super.write(w);
+		w.writeVarInt(instanceIndex);
+		w.writeVarInt(instanceCount);
+	}
+
+	@Override
+	protected void read(NodeCodec.Reader r) throws IOException
+	{
+		super.read(r);
+		instanceIndex = r.readVarInt();
+		instanceCount = r.readVarInt();
+	}
+
+	@Override
+	public String toString()
+	{
+		// the physical node is not known after deserialization
+		return instanceCount == 1 ? super.toString()
+				: super.toString() + "#" + instanceIndex;
+	}
 	
 	public void run(RemoteMain r, List<String> parms)
 	{
@@ -40,6 +189,30 @@ public class JavaNode extends SSHNode
 		r.main(parms);
 	}
 	
+	@Override
+	public boolean waitForTermination(long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		if (isLocalNode())
+		{
+			return runningMain == null;
+		}
+		else
+		{
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+			for (JavaNode i : instances)
+			{
+				if ( ! i.waitForTermination(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS))
+					return false;
+			}
+
+			return super.waitForTermination(deadline - System.nanoTime(),
+					TimeUnit.NANOSECONDS);
+		}
+	}
+
 	public void stop()
 	{
 		if (isLocalNode())
@@ -52,8 +225,71 @@ public class JavaNode extends SSHNode
 		}
 		else
 		{
+			// all the JVMs of the node are asked to stop first, so that they
+			// stop together within a single deadline
+			List<JavaNode> jvms = new ArrayList<>(instances);
+			jvms.add(this);
+			long deadlineMs = - 1;
+
+			for (JavaNode j : jvms)
+			{
+				if (j.requestStop())
+				{
+					deadlineMs = Math.max(deadlineMs, j.stopDeadlineMs);
+				}
+			}
+
+			if (deadlineMs >= 0)
+			{
+				try
+				{
+					// the remote JVMs exit by themselves after the deadline, so
+					// the extra time is for the network
+					waitForTermination(deadlineMs + 2000, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			for (JavaNode i : instances)
+			{
+				i.terminate();
+			}
+
 			super.stop();
 		}
 	}
 
+	/**
+	 * Sends STOP to the JVM, if it runs.
+	 * 
+	 * @return whether the JVM is expected to exit by itself
+	 */
+	private boolean requestStop()
+	{
+		ControlChannel c = getControlChannel();
+
+		if (c != null && c.isReady() && ! isProcessTerminated())
+		{
+			try
+			{
+				c.stop(stopDeadlineMs);
+				return true;
+			}
+			catch (IOException e)
+			{
+				// the connection is lost, the process will be killed
+			}
+		}
+
+		return false;
+	}
+
+	private void terminate()
+	{
+		super.stop();
+	}
+
 }
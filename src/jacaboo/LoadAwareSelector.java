@@ -0,0 +1,215 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Picks the least loaded hosts of a shared pool. The candidates are probed
+ * in parallel through a {@link FanOut} (see {@link HardwareInventory}). The
+ * hosts which do not answer before the deadline are left aside, their probe
+ * goes on in the background and is ignored.
+ * 
+ * Hosts are ranked by load per core, each logged-in user counting as a
+ * quarter of a busy core, and then by free memory.
+ */
+public class LoadAwareSelector
+{
+	private final SSHNode frontal;
+	private final String username;
+	private final long deadlineMs;
+	private final FanOut fanOut = new FanOut();
+
+	public LoadAwareSelector(String username, long deadlineMs)
+	{
+		this(null, username, deadlineMs);
+	}
+
+	/**
+	 * @param frontal
+	 *            the node to connect through, or null
+	 * @param username
+	 *            the login name on the hosts whose name does not give one,
+	 *            as for the cluster which will use them
+	 */
+	public LoadAwareSelector(SSHNode frontal, String username, long deadlineMs)
+	{
+		this.frontal = frontal;
+		this.username = username;
+		this.deadlineMs = deadlineMs;
+	}
+
+	public long getDeadlineMs()
+	{
+		return deadlineMs;
+	}
+
+	public FanOut getFanOut()
+	{
+		return fanOut;
+	}
+
+	/**
+	 * @return the given number of least loaded hosts, named as in the
+	 *         candidates
+	 * @throws IllegalArgumentException
+	 *             if not that many hosts answered in time
+	 */
+	public NodeNameSet select(Collection<String> names, int n)
+	{
+		List<Probe> probes = probeAll(names);
+
+		if (probes.size() < n)
+			throw new IllegalArgumentException("only " + probes.size() + " of the "
+					+ names.size() + " nodes answered in " + deadlineMs + "ms, " + n
+					+ " are needed");
+
+		NodeNameSet r = new NodeNameSet();
+
+		for (Probe p : probes.subList(0, n))
+		{
+			r.add(p.name);
+		}
+
+		return r;
+	}
+
+	/**
+	 * @return the hosts which answered in time, least loaded first
+	 */
+	public List<SSHNode> probe(Collection<String> names)
+	{
+		List<SSHNode> nodes = new ArrayList<>();
+
+		for (Probe p : probeAll(names))
+		{
+			nodes.add(p.node);
+		}
+
+		return nodes;
+	}
+
+	private static class Probe
+	{
+		final String name;
+		final SSHNode node;
+
+		Probe(String name, SSHNode node)
+		{
+			this.name = name;
+			this.node = node;
+		}
+	}
+
+	private List<Probe> probeAll(final Collection<String> names)
+	{
+		final int timeoutInSecond = (int) Math.max(1, (deadlineMs + 999) / 1000);
+		final long deadline = System.currentTimeMillis() + deadlineMs;
+		final Queue<Probe> answered = new ConcurrentLinkedQueue<>();
+
+		// the fan-out bounds the number of ssh at once, the caller only waits
+		// until the deadline
+		CompletableFuture<Void> all = CompletableFuture.runAsync(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				new ParallelProcessing<String>(fanOut, "load probing", names)
+				{
+					@Override
+					protected void process(String name)
+					{
+						// not started in time, it would be ignored anyway
+						if (System.currentTimeMillis() >= deadline)
+							return;
+
+						SSHNode node;
+
+						try
+						{
+							node = new SSHNode(name, username);
+							node.probeInventory(frontal, timeoutInSecond);
+						}
+						catch (RuntimeException e)
+						{
+							// not a candidate
+							return;
+						}
+
+						if (System.currentTimeMillis() < deadline)
+						{
+							answered.add(new Probe(name, node));
+						}
+					}
+				};
+			}
+		}, FanOut.getExecutor());
+
+		try
+		{
+			all.get(deadlineMs, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException | ExecutionException e)
+		{
+			// some hosts failed or are late
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		// the late answers are not added once the deadline has passed
+		List<Probe> probes = new ArrayList<>(answered);
+
+		Collections.sort(probes, new Comparator<Probe>()
+		{
+			@Override
+			public int compare(Probe a, Probe b)
+			{
+				HardwareInventory ia = a.node.getInventory();
+				HardwareInventory ib = b.node.getInventory();
+				int c = Double.compare(getScore(ia), getScore(ib));
+				return c != 0 ? c : Long.compare(ib.getFreeMemory(), ia.getFreeMemory());
+			}
+		});
+
+		return probes;
+	}
+
+	/**
+	 * @return how busy the host is, the lower the better
+	 */
+	protected double getScore(HardwareInventory inv)
+	{
+		double load = Math.max(0, inv.getLoadAverage());
+		return (load + 0.25 * Math.max(0, inv.getLoggedInUsers()))
+				/ Math.max(1, inv.getUsableCores());
+	}
+}
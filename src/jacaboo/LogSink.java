@@ -0,0 +1,267 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous writer of the lines output by the nodes. Lines are put in a
+ * lock-free ring buffer by any number of threads, and a single thread writes
+ * them by large batches to the underlying stream. The threads forwarding the
+ * output of the nodes then never contend on the monitor of the stream.
+ * 
+ * When the buffer is full, lines are either dropped (and counted) or the
+ * producer waits for some room, depending on the {@link Policy}. When the
+ * buffer is empty, the writer sleeps until a producer wakes it up.
+ * 
+ * Lines are encoded as the output of the nodes is decoded, see
+ * {@link OutputPump#defaultCharset}.
+ */
+public class LogSink
+{
+	public enum Policy
+	{
+		BLOCK, DROP
+	}
+
+	public static final String policyProperty = "biggrph.log.policy";
+	public static final String bufferSizeProperty = "biggrph.log.bufferSize";
+
+	private static final int maxBatchSizeInBytes = 65536;
+	private static final String lineSeparator = System.lineSeparator();
+	private static final Map<PrintStream, LogSink> sinks = new IdentityHashMap<>();
+
+	private final PrintStream out;
+	private final Policy policy;
+	private final int mask;
+
+	// Vyukov's bounded queue: the sequence number of a slot tells whether it
+	// is free for the producer of a given position, or ready for the consumer
+	private final String[] prefixes;
+	private final String[] lines;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head = 0;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicBoolean sleeping = new AtomicBoolean();
+	private final Thread writer;
+
+	public static synchronized LogSink of(PrintStream out)
+	{
+		LogSink s = sinks.get(out);
+
+		if (s == null)
+		{
+			Policy policy = Policy
+					.valueOf(System.getProperty(policyProperty, "block").toUpperCase());
+			int size = Integer.parseInt(System.getProperty(bufferSizeProperty, "65536"));
+			sinks.put(out, s = new LogSink(out, policy, size));
+		}
+
+		return s;
+	}
+
+	public LogSink(PrintStream out, Policy policy, int bufferSize)
+	{
+		if (Integer.bitCount(bufferSize) != 1)
+			throw new IllegalArgumentException("buffer size must be a power of 2");
+
+		this.out = out;
+		this.policy = policy;
+		this.mask = bufferSize - 1;
+		this.prefixes = new String[bufferSize];
+		this.lines = new String[bufferSize];
+		this.sequences = new AtomicLongArray(bufferSize);
+
+		for (int i = 0; i < bufferSize; ++i)
+		{
+			sequences.set(i, i);
+		}
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (true)
+				{
+					if ( ! writeBatch())
+					{
+						sleeping.set(true);
+
+						// a line queued before the flag was raised did not
+						// wake the writer up
+						if ( ! hasPendingLines())
+						{
+							LockSupport.park(this);
+						}
+
+						sleeping.set(false);
+					}
+				}
+			}
+		}, "jacaboo-log-sink");
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		});
+	}
+
+	public Policy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * @return the number of lines dropped by this sink, for all nodes
+	 */
+	public long getDroppedLineCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Queues the line for writing.
+	 * 
+	 * @return false if the line was dropped
+	 */
+	public boolean append(String prefix, String line)
+	{
+		while ( ! offer(prefix, line))
+		{
+			if (policy == Policy.DROP)
+			{
+				dropped.incrementAndGet();
+				return false;
+			}
+
+			LockSupport.parkNanos(10000);
+		}
+
+		return true;
+	}
+
+	private boolean offer(String prefix, String line)
+	{
+		long pos = tail.get();
+
+		while (true)
+		{
+			int i = (int) (pos & mask);
+			long dif = sequences.get(i) - pos;
+
+			if (dif == 0)
+			{
+				if (tail.compareAndSet(pos, pos + 1))
+				{
+					prefixes[i] = prefix;
+					lines[i] = line;
+
+					// not a lazy set: the writer must either see the line or be
+					// seen sleeping
+					sequences.set(i, pos + 1);
+
+					if (sleeping.get() && sleeping.compareAndSet(true, false))
+					{
+						LockSupport.unpark(writer);
+					}
+
+					return true;
+				}
+
+				pos = tail.get();
+			}
+			else if (dif < 0)
+			{
+				// full
+				return false;
+			}
+			else
+			{
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Writes all the lines queued so far.
+	 */
+	public void flush()
+	{
+		while (writeBatch())
+			;
+	}
+
+	private synchronized boolean hasPendingLines()
+	{
+		return sequences.get((int) (head & mask)) == head + 1;
+	}
+
+	// single consumer, either the writer thread or the thread flushing
+	private synchronized boolean writeBatch()
+	{
+		StringBuilder b = null;
+
+		while (b == null || b.length() < maxBatchSizeInBytes)
+		{
+			int i = (int) (head & mask);
+
+			if (sequences.get(i) != head + 1)
+				break;
+
+			if (b == null)
+			{
+				b = new StringBuilder();
+			}
+
+			if (prefixes[i] != null)
+			{
+				b.append(prefixes[i]);
+			}
+
+			b.append(lines[i]);
+			b.append(lineSeparator);
+			prefixes[i] = lines[i] = null;
+			sequences.lazySet(i, head + mask + 1);
+			++head;
+		}
+
+		if (b == null)
+			return false;
+
+		byte[] bytes = b.toString().getBytes(OutputPump.defaultCharset);
+		out.write(bytes, 0, bytes.length);
+		out.flush();
+		return true;
+	}
+}
@@ -19,30 +19,186 @@
 
 package jacaboo;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import toools.reflect.Clazz;
 
+/**
+ * Runs a {@link RemoteMain} on a node, and executes the control commands the
+ * master sends on stdin (see {@link ControlProtocol}). The application can be
+ * given on the command line, or in a START command.
+ * 
+ * A {@link NodeAgent} uses one runner per session, each loading the
+ * application in its own class loader.
+ */
 public class MainClassRunner
 {
-	static RemoteMain mainObject = null;
+	private RemoteMain mainObject = null;
+	private Thread mainThread = null;
+	private volatile String state = "idle";
+	private final long startTime = System.currentTimeMillis();
+	private final ClassLoader classLoader;
+
+	/**
+	 * Deadline for the application to stop, when the master disappears.
+	 */
+	private static final long defaultStopDeadlineMs = 1000;
+
+	/**
+	 * The period of the heartbeats sent to the master (see
+	 * {@link FailureDetector}).
+	 */
+	public static final String heartbeatIntervalProperty = "biggrph.heartbeat.interval";
+
+	/**
+	 * @param classLoader
+	 *            the loader of the application classes, or null for the
+	 *            system one
+	 */
+	MainClassRunner(ClassLoader classLoader)
+	{
+		this.classLoader = classLoader;
+	}
 
 	public static void main(String[] args)
 			throws ClassNotFoundException, NoSuchMethodException
 	{
-		final List<String> argList = new ArrayList<String>(Arrays.asList(args));
+		MainClassRunner r = new MainClassRunner(null);
+
+		if (args.length > 0)
+		{
+			r.start(new ArrayList<String>(Arrays.asList(args)));
+		}
+
+		r.run(System.in);
+
+		System.out.flush();
+		System.err.flush();
+		System.exit(0);
+	}
+
+	/**
+	 * Executes the commands read from the given stream, until the master asks
+	 * to stop or disappears. When this method returns, the application is
+	 * stopped or the deadline it was given is over.
+	 */
+	void run(InputStream commands) throws ClassNotFoundException
+	{
+		// the master will not send anything before it knows that the JVM
+		// reads stdin
+		send(ControlProtocol.READY, new byte[0]);
+		Thread heartbeats = startHeartbeats(
+				Long.getLong(heartbeatIntervalProperty, FailureDetector.defaultIntervalMs));
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(commands));
+		long stopDeadlineMs = defaultStopDeadlineMs;
+
+		try
+		{
+			while (true)
+			{
+				ControlProtocol.Frame f = ControlProtocol.read(in);
+
+				// client closes the SSH connection (the client program quit)
+				if (f == null)
+					break;
+
+				if (f.type == ControlProtocol.STOP)
+				{
+					stopDeadlineMs = f.getPayloadInputStream().readLong();
+					break;
+				}
+
+				switch (f.type)
+				{
+				case ControlProtocol.START:
+					start(ControlProtocol.decodeStrings(f.payload));
+					break;
+				case ControlProtocol.PING:
+					send(ControlProtocol.PONG, f.payload);
+					break;
+				case ControlProtocol.STATUS:
+					send(ControlProtocol.STATUS_REPLY, status());
+					break;
+				case ControlProtocol.USER:
+					RemoteMain m = mainObject;
+
+					if (m != null)
+					{
+						m.onMessage(f.payload);
+					}
+					break;
+				default:
+					System.err.println("MainClassRunner: unknown command " + f.type);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+
+		heartbeats.interrupt();
+		stop(stopDeadlineMs);
+	}
+
+	/*
+	 * The thread inherits the output of the session, so the heartbeats go to
+	 * the master of this runner when it runs in a NodeAgent.
+	 */
+	private static Thread startHeartbeats(final long intervalMs)
+	{
+		Thread t = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for (long n = 0;; ++n)
+					{
+						send(ControlProtocol.HEARTBEAT, ControlProtocol.encodeLong(n));
+						Thread.sleep(intervalMs);
+					}
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}, "jacaboo heartbeats");
+
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	synchronized void start(final List<String> argList) throws ClassNotFoundException
+	{
+		if (mainThread != null)
+		{
+			System.err.println("MainClassRunner: application already started");
+			return;
+		}
 
 		String userMainClassName = argList.remove(0);
 		Binaries.setApplicationName(argList.remove(0));
 		@SuppressWarnings("unchecked")
-		final Class<? extends RemoteMain> userMainClass = Clazz
-				.findClassOrFail(userMainClassName);
+		final Class<? extends RemoteMain> userMainClass = classLoader == null
+				? Clazz.findClassOrFail(userMainClassName)
+				: (Class<? extends RemoteMain>) Class.forName(userMainClassName,
+						true, classLoader);
 
-		new Thread(new Runnable()
+		state = "running";
+		mainThread = new Thread(new Runnable()
 		{
 			@Override
 			public void run()
@@ -50,6 +206,8 @@ public class MainClassRunner
 				try
 				{
 					mainObject = userMainClass.newInstance();
+					// so that the master can measure the startup time
+					send(ControlProtocol.MAIN_STARTED, new byte[0]);
 					mainObject.main(argList);
 				}
 				catch (Throwable e)
@@ -63,34 +221,63 @@ public class MainClassRunner
 						e.getCause().printStackTrace();
 					}
 				}
+				finally
+				{
+					state = "terminated";
+				}
 			}
-		}).start();
+		});
 
-		try
+		if (classLoader != null)
 		{
-			System.in.read();
+			mainThread.setContextClassLoader(classLoader);
 		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
-		}
-		catch (Throwable t)
-		{
-			// client closes the SSH connection (the client program quit)
-			// t.printStackTrace();
-		}
-		// System.err.println("MainClassRunner: stdin closed, stop and exit.");
+
+		mainThread.start();
+	}
+
+	/**
+	 * Asks the application to stop and returns as soon as its main thread is
+	 * done, or when the deadline expires.
+	 */
+	void stop(long deadlineMs)
+	{
+		state = "stopping";
+
 		if (mainObject != null)
 			mainObject.stop();
-		try
-		{
-			Thread.sleep(1000);
-		}
-		catch (InterruptedException e)
+
+		if (mainThread != null)
 		{
-			e.printStackTrace();
+			try
+			{
+				mainThread.join(Math.max(1, deadlineMs));
+			}
+			catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
 		}
-		System.exit(0);
 	}
 
+	private byte[] status() throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeUTF(state);
+		dos.writeLong(System.currentTimeMillis() - startTime);
+		dos.writeLong(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Sends a control frame to the master.
+	 */
+	static void send(byte type, byte[] payload)
+	{
+		// println() is atomic, so no other output gets into the frame. It may
+		// still follow a partial line of the application, which the master
+		// takes care of.
+		System.out.println(ControlProtocol.toLine(type, payload));
+	}
 }
@@ -21,9 +21,11 @@ package jacaboo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -36,12 +38,12 @@ import toools.io.file.AbstractFile;
 import toools.io.file.Directory;
 import toools.io.file.RegularFile;
 import toools.text.TextUtilities;
-import toools.thread.OneElementOneThreadProcessing;
 
 public class NASCluster<N extends SSHNode> extends Cluster<N>
 {
 	private Set<Set<N>> nasGroups;
 	private N sshFrontal;
+	private final Object growthLock = new Object();
 
 	protected NASCluster(N frontal, Set<N> nodeSet)
 	{
@@ -66,25 +68,224 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 		{
 			if (sshFrontal != null)
 			{
-				new OneElementOneThreadProcessing<N>(getNodes())
+				// all the connections to the nodes go through this one
+				SSHUtils.openMasterConnection(SSHUtils.sshCommandNameDefault,
+						getTimeoutInSecond(), sshFrontal);
+
+				checkReachability(getNodes());
+			}
+
+			nasGroups = discoverSharedFileSystems(getNodes(),
+					Collections.<Set<N>> emptySet(), new HashMap<Set<N>, Set<N>>());
+			System.out.println("Found NAS groups: " + nasGroups);
+		}
+	}
+
+	private void checkReachability(Set<N> nodes)
+	{
+		// a single selector probes the SSH port of all the nodes at once
+		Reachability.Result<N> reachability = new Reachability().probe(nodes);
+
+		for (N n : nodes)
+		{
+			if ( ! reachability.isReachable(n))
+				throw new IllegalStateException(new IOException(n + " can't be reached"));
+
+			getStartupMetrics().record(StartupMetrics.REACHABILITY, n,
+					reachability.getConnectRTTs().get(n) / 1000000);
+		}
+	}
+
+	/**
+	 * Adds a node to the cluster. If the cluster is already started, the node
+	 * is started too, see {@link #grow(Collection)}.
+	 */
+	@Override
+	public void add(N n)
+	{
+		if (nasGroups == null)
+		{
+			super.add(n);
+		}
+		else
+		{
+			grow(Collections.singleton(n));
+		}
+	}
+
+	/**
+	 * Adds nodes to the cluster. If the cluster is already started, the new
+	 * nodes only are checked and assigned to their NAS group: a new node
+	 * joins the group of the nodes it shares its home directory with, or
+	 * forms a new group. They are then started by
+	 * {@link #startNewNodes(Map)}.
+	 */
+	public void grow(Collection<N> newNodes)
+	{
+		// the growth can be long, and must not delay the discarding of nodes
+		synchronized (growthLock)
+		{
+			if (nasGroups == null)
+			{
+				for (N n : newNodes)
+				{
+					super.add(n);
+				}
+
+				return;
+			}
+
+			NodeSet<N> nodes = new NodeSet<>();
+			nodes.addAll(newNodes);
+
+			// the nodes join the cluster only once they are assigned to a
+			// group, so that a failure leaves the cluster as it was
+			if (sshFrontal != null)
+			{
+				checkReachability(nodes);
+			}
+
+			Set<Set<N>> knownGroups;
+
+			synchronized (this)
+			{
+				knownGroups = new HashSet<>(nasGroups);
+			}
+
+			Map<Set<N>, Set<N>> joined = new IdentityHashMap<>();
+			Set<Set<N>> groups = discoverSharedFileSystems(nodes, knownGroups, joined);
+			Map<Set<N>, Set<N>> newcomers = new HashMap<>();
+
+			// the known groups are not modified but replaced, since discard()
+			// may be going through them
+			synchronized (this)
+			{
+				Set<Set<N>> allGroups = new HashSet<>();
+
+				for (Set<N> g : nasGroups)
 				{
+					Set<N> joining = joined.remove(g);
 
-					@Override
-					protected void process(N n) throws Throwable
+					if (joining == null)
 					{
-						// if there's not frontal to reach the node, ping it
-						if ( ! n.isReacheable(getTimeoutInSecond() * 1000))
-						{
-							throw new IOException(n + " can't be reached");
-							// discard(n, new IOException(n +
-							// " can't be reached"));
-						}
+						allGroups.add(g);
+					}
+					else
+					{
+						NodeSet<N> grown = new NodeSet<>();
+						grown.addAll(g);
+						grown.addAll(joining);
+						allGroups.add(grown);
+						newcomers.put(grown, joining);
 					}
-				};
+				}
+
+				// the nodes whose group was discarded in the meantime form a
+				// new one
+				for (Set<N> joining : joined.values())
+				{
+					groups.add(joining);
+				}
+
+				for (Set<N> g : groups)
+				{
+					NodeSet<N> s = new NodeSet<>();
+					s.addAll(g);
+					allGroups.add(g);
+					newcomers.put(g, s);
+				}
+
+				nasGroups = allGroups;
+
+				for (N n : nodes)
+				{
+					super.add(n);
+				}
 			}
 
-			discoverSharedFileSystems();
-			System.out.println("Found NAS groups: " + nasGroups);
+			System.out.println("New nodes in NAS groups: " + newcomers.values());
+
+			try
+			{
+				startNewNodes(newcomers);
+			}
+			catch (RuntimeException | Error e)
+			{
+				for (N n : nodes)
+				{
+					try
+					{
+						discard(n, e);
+					}
+					catch (IllegalStateException noNodeLeft)
+					{
+						System.err.println(noNodeLeft.getMessage());
+					}
+				}
+
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Starts the nodes added to a started cluster. By default, nothing is
+	 * needed.
+	 * 
+	 * @param newcomers
+	 *            the new nodes, by NAS group. A group whose nodes are all new
+	 *            was not part of the cluster before.
+	 */
+	protected void startNewNodes(Map<Set<N>, Set<N>> newcomers)
+	{
+	}
+
+	/**
+	 * Starts the cluster in the background.
+	 * 
+	 * @return the futures of the nodes, which complete as soon as each node
+	 *         is started
+	 */
+	public ClusterStartup<N> startAsync()
+	{
+		final ClusterStartup<N> startup = new ClusterStartup<>(getNodes());
+
+		FanOut.getExecutor().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// the nodes discarded during the startup
+				Throwable reason = new IllegalStateException("node was discarded");
+
+				try
+				{
+					start(startup);
+				}
+				catch (Throwable t)
+				{
+					reason = t;
+				}
+
+				startup.failRemaining(reason);
+			}
+		});
+
+		return startup;
+	}
+
+	/**
+	 * Starts the cluster and reports the progress of every node to the given
+	 * startup. By default, all nodes complete together when {@link #start()}
+	 * returns.
+	 */
+	protected void start(ClusterStartup<N> startup)
+	{
+		start();
+
+		for (N n : getNodes())
+		{
+			startup.nodeStarted(n);
 		}
 	}
 
@@ -149,18 +350,37 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 		return s;
 	}
 
-	private void discoverSharedFileSystems()
+	/*
+	 * Every node writes a file named after it in its home directory, so the
+	 * nodes which see the file of another one share its home directory. The
+	 * known groups take part through one of their nodes, so that the given
+	 * nodes join them instead of forming new groups. The known groups are left
+	 * unchanged, the nodes which join them are put in the given map, by group.
+	 * 
+	 * Returns the new groups of the given nodes.
+	 */
+	private Set<Set<N>> discoverSharedFileSystems(final Set<N> nodes,
+			Set<Set<N>> knownGroups, Map<Set<N>, Set<N>> joined)
 	{
-		System.out.println("Fetching distributed file systems among " + getNodes());
+		System.out.println("Fetching distributed file systems among " + nodes);
 		final String prefix = "octojus-nas-";
+		final Map<N, Set<N>> representatives = new HashMap<>();
 
-		new OneElementOneThreadProcessing<N>(getNodes())
+		for (Set<N> g : knownGroups)
 		{
+			representatives.put(g.iterator().next(), g);
+		}
 
+		final Set<N> taggedNodes = new HashSet<>(nodes);
+		taggedNodes.addAll(representatives.keySet());
+
+		new ParallelProcessing<N>(getFanOut(), "NAS tagging", taggedNodes)
+		{
 			@Override
 			protected void process(N n) throws Throwable
 			{
-				String filename = prefix + n.getInetAddress().getHostName();
+				long t = System.nanoTime();
+				String filename = prefix + n.getName();
 
 				if (n.isLocalhost())
 				{
@@ -190,31 +410,34 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 						// discard(n, e);
 					}
 				}
+
+				getStartupMetrics().recordSince(StartupMetrics.NAS_DISCOVERY, n, t);
 			}
 		};
 
 		final Map<N, Set<N>> sets = Collections.synchronizedMap(new HashMap<N, Set<N>>());
 
-		new OneElementOneThreadProcessing<N>(getNodes())
+		new ParallelProcessing<N>(getFanOut(), "NAS discovery", nodes)
 		{
 			@Override
 			protected void process(N n) throws Throwable
 			{
 				{
+					long t = System.nanoTime();
 					Set<N> s = new NodeSet<N>();
 
 					for (String name : listNodeNames(n))
 					{
 						String hostname = name.substring(prefix.length());
-						for (N node : getNodes())
+						for (N node : taggedNodes)
 						{
-							if (hostname
-									.compareTo(node.getInetAddress().getHostName()) == 0)
+							if (hostname.compareTo(node.getName()) == 0)
 								s.add(node);
 						}
 					}
 
 					sets.put(n, s);
+					getStartupMetrics().recordSince(StartupMetrics.NAS_DISCOVERY, n, t);
 				}
 			}
 
@@ -240,9 +463,42 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 			}
 		};
 
-		this.nasGroups = new HashSet<Set<N>>(sets.values());
+		Set<Set<N>> groups = new HashSet<>();
+		Set<N> cleaners = new HashSet<>(representatives.keySet());
+
+		for (N n : nodes)
+		{
+			Set<N> known = null;
+
+			for (N other : sets.get(n))
+			{
+				if (representatives.containsKey(other))
+				{
+					known = representatives.get(other);
+				}
+			}
+
+			if (known == null)
+			{
+				Set<N> g = sets.get(n);
+
+				if (groups.add(g))
+				{
+					cleaners.add(n);
+				}
+			}
+			else
+			{
+				if ( ! joined.containsKey(known))
+				{
+					joined.put(known, new NodeSet<N>());
+				}
+
+				joined.get(known).add(n);
+			}
+		}
 
-		new OneElementOneThreadProcessing<N>(pickOneNodeInEveryNASGroup(new Random()))
+		new ParallelProcessing<N>(getFanOut(), "NAS cleanup", cleaners)
 		{
 			@Override
 			protected void process(N n) throws Throwable
@@ -264,6 +520,8 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 				}
 			}
 		};
+
+		return groups;
 	}
 
 	protected boolean containsLocalhost(Set<N> nodeGroup)
@@ -282,7 +540,7 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 	{
 		final Set<N> nodes = new HashSet<>();
 
-		new OneElementOneThreadProcessing<N>(getNodes())
+		new ParallelProcessing<N>(getFanOut(), "file lookup", getNodes())
 		{
 
 			@Override
@@ -352,94 +610,238 @@ public class NASCluster<N extends SSHNode> extends Cluster<N>
 		if (remoteDirectory.isEmpty())
 			throw new IllegalArgumentException();
 
+		new ParallelProcessing<Set<N>>(getFanOut(), "deployment of " + f.getName(),
+				getNASGroups())
+		{
+			@Override
+			protected void process(Set<N> nasGroup) throws Throwable
+			{
+				deploy(f, remoteDirectory, nasGroup);
+			}
+		};
+	}
+
+	/**
+	 * Deploys the given file to a single NAS group.
+	 */
+	protected void deploy(AbstractFile f, String remoteDirectory, Set<N> nasGroup)
+			throws IOException
+	{
 		// adds the final '/' required by rsync
-		final String rsyncDestDirectory = remoteDirectory.endsWith("/") ? remoteDirectory
+		String rsyncDestDirectory = remoteDirectory.endsWith("/") ? remoteDirectory
 				: remoteDirectory + "/";
 
-		new OneElementOneThreadProcessing<Set<N>>(getNASGroups())
+		// Check if one node in the group is the localhost
+		if (containsLocalhost(nasGroup))
 		{
-			@Override
-			protected void process(Set<N> nasGroup) throws Throwable
+			Directory targetDirectory = new Directory("$HOME/" + remoteDirectory);
+
+			AbstractFile to = f instanceof RegularFile
+					? new RegularFile(targetDirectory, f.getName())
+					: new Directory(targetDirectory, f.getName());
+
+			if ( ! to.exists())
 			{
-				// Check if one node in the group is the localhost
-				if (containsLocalhost(nasGroup))
+				if ( ! to.getParent().exists())
 				{
-					Directory targetDirectory = new Directory("$HOME/" + remoteDirectory);
+					to.getParent().mkdirs();
+				}
 
-					AbstractFile to = f instanceof RegularFile
-							? new RegularFile(targetDirectory, f.getName())
-							: new Directory(targetDirectory, f.getName());
+				f.createLink(to);
+			}
+		}
+		else
+		{
+			// try to deploy the binaries to one node in the set
+			// if this node fails, another node is chosen
+			// while (!nasGroup.isEmpty())
+			{
+				N node = nasGroup.iterator().next();
+				{
+					System.out.println(f.getName() + " => " + node + ":"
+							+ rsyncDestDirectory + " of group " + nasGroup);
 
-					if ( ! to.exists())
-					{
-						if ( ! to.getParent().exists())
-						{
-							to.getParent().mkdirs();
-						}
+					SSHUtils.execSh(sshFrontal, getTimeoutInSecond(), node,
+							"if ! test -d '" + rsyncDestDirectory + "'; then mkdir -p "
+									+ rsyncDestDirectory + "; fi");
 
-						f.createLink(to);
+					if (f instanceof Directory)
+					{
+						@SuppressWarnings("unused")
+						String rsyncOut = new String(Proces.exec(getRsyncCommandName(), "-e",
+								getRsyncRemoteShell(), "--inplace", "--progress",
+								"--delete", "--copy-links", "--copy-dirlinks",
+								"--recursive", "-t", f.getPath() + "/",
+								node.getSSHName() + ":" + rsyncDestDirectory));
 					}
-				}
-				else
-				{
-					// try to deploy the binaries to one node in the set
-					// if this node fails, another node is chosen
-					// while (!nasGroup.isEmpty())
+					else
 					{
-						N node = nasGroup.iterator().next();
-						{
-							System.out.println(f.getName() + " => " + node + ":"
-									+ rsyncDestDirectory + " of group " + nasGroup);
-
-							SSHUtils.execSh(sshFrontal, getTimeoutInSecond(), node,
-									"if ! test -d '" + rsyncDestDirectory
-											+ "'; then mkdir -p " + rsyncDestDirectory
-											+ "; fi");
-
-							if (f instanceof Directory)
-							{
-								@SuppressWarnings("unused")
-								String rsyncOut = new String(Proces.exec("rsync", "-e",
-										(getFrontal() != null
-												? SSHUtils.sshCommandNameDefault + " "
-														+ TextUtilities.concatene(
-																SSHUtils.getSSHOptions(),
-																" ")
-														+ getFrontal().getSSHName() + " "
-												: "")
-												+ SSHUtils.getSSHCommandName() + " "
-												+ SSHUtils.getSSHOptionsString(
-														getTimeoutInSecond()),
-										"--inplace", "--progress", "--delete",
-										"--copy-links", "--copy-dirlinks", "--recursive",
-										"-t", f.getPath() + "/",
-										node.getSSHName() + ":" + rsyncDestDirectory));
-							}
-							else
-							{
-								@SuppressWarnings("unused")
-								String rsyncOut = new String(Proces.exec("rsync", "-e",
-										(getFrontal() != null
-												? SSHUtils.sshCommandNameDefault + " "
-														+ TextUtilities.concatene(
-																SSHUtils.getSSHOptions(),
-																" ")
-														+ getFrontal().getSSHName() + " "
-												: "")
-												+ SSHUtils.getSSHCommandName() + " "
-												+ SSHUtils.getSSHOptionsString(
-														getTimeoutInSecond()),
-										"--inplace", "--progress", "--copy-links", "-t",
-										f.getPath(),
-										node.getSSHName() + ":" + rsyncDestDirectory));
-							}
-						}
+						@SuppressWarnings("unused")
+						String rsyncOut = new String(Proces.exec(getRsyncCommandName(), "-e",
+								getRsyncRemoteShell(), "--inplace", "--progress",
+								"--copy-links", "-t", f.getPath(),
+								node.getSSHName() + ":" + rsyncDestDirectory));
 					}
 				}
 			}
+		}
+	}
+
+	public static final String rsyncCommandNameProperty = "biggrph.rsync.command";
+
+	public static String getRsyncCommandName()
+	{
+		return System.getProperty(rsyncCommandNameProperty, "rsync");
+	}
+
+	/**
+	 * The remote shell rsync must use to reach the nodes, possibly through
+	 * the frontal.
+	 */
+	protected String getRsyncRemoteShell()
+	{
+		return (getFrontal() != null
+				? SSHUtils.sshCommandNameDefault + " "
+						+ TextUtilities.concatene(SSHUtils.getSSHOptions(), " ")
+						+ getFrontal().getSSHName() + " "
+				: "") + SSHUtils.getSSHCommandName() + " "
+				+ SSHUtils.getSSHOptionsString(getTimeoutInSecond());
+	}
+
+	/**
+	 * Probes the hardware of the nodes whose inventory is missing or older
+	 * than the given age, with one SSH command per node.
+	 */
+	public void probeInventories(final long maxAgeMs)
+	{
+		new ParallelProcessing<N>(getFanOut(), "hardware probing", getNodes())
+		{
+			@Override
+			protected void process(N node) throws Throwable
+			{
+				if (node.getInventory(maxAgeMs) == null)
+				{
+					node.probeInventory(getFrontal(), getTimeoutInSecond());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Deploys the classpath described by the given manifest to one node of
+	 * every NAS group.
+	 * 
+	 * @param manifest
+	 */
+	public void deployClassPath(final ClassPathManifest manifest)
+	{
+		new ParallelProcessing<Set<N>>(getFanOut(), "classpath deployment",
+				getNASGroups())
+		{
+			@Override
+			protected void process(Set<N> nasGroup) throws Throwable
+			{
+				deployClassPath(manifest, nasGroup);
+			}
 		};
 	}
 
+	/**
+	 * Deploys the classpath to a single NAS group. The remote manifest and the
+	 * list of the blobs already there are fetched in a single SSH call, only
+	 * the missing blobs are then transferred. If the remote manifest is the
+	 * same as the local one, nothing else is done. Otherwise, once the jar
+	 * directory is rebuilt, the blobs it no longer uses are deleted. The agent
+	 * sessions keep their own links to the blobs they run on, see
+	 * {@link NodeAgent}.
+	 */
+	protected void deployClassPath(ClassPathManifest manifest, Set<N> nasGroup)
+	{
+		String blobDir = Binaries.blobDirectoryPathRelativeToHomedir();
+		String jarDir = Binaries.jarDirectoryPathRelativeToHomedir();
+		String manifestFile = Binaries.manifestPathRelativeToHomedir();
+
+		// local nodes use the symbolic links in the local jar
+		// directory
+		if (containsLocalhost(nasGroup))
+			return;
+
+		long t = System.nanoTime();
+		N node = nasGroup.iterator().next();
+		List<String> out = SSHUtils.execSh(sshFrontal, getTimeoutInSecond(), node,
+				"mkdir -p " + blobDir + " " + jarDir + " && cat " + manifestFile
+						+ " 2>/dev/null; echo " + manifestSeparator + "; ls " + blobDir);
+
+		int sep = out.indexOf(manifestSeparator);
+
+		if (sep < 0)
+			throw new IllegalStateException("unexpected output from " + node + ": " + out);
+
+		ClassPathManifest remoteManifest = ClassPathManifest
+				.fromText(out.subList(0, sep));
+
+		if (remoteManifest.equals(manifest))
+		{
+			System.out.println("Classpath is up to date on group " + nasGroup);
+			getStartupMetrics().recordSince(StartupMetrics.DEPLOY, node, t);
+			return;
+		}
+
+		List<String> remoteBlobs = out.subList(sep + 1, out.size());
+		Set<String> missingBlobs = manifest.getBlobNames();
+		missingBlobs.removeAll(remoteBlobs);
+
+		if ( ! missingBlobs.isEmpty())
+		{
+			System.out.println(missingBlobs.size() + " new classpath entries => " + node
+					+ " of group " + nasGroup);
+			String fileList = TextUtilities.concatene(missingBlobs, "\n") + "\n";
+			Proces.exec(getRsyncCommandName(), fileList.getBytes(), "-e", getRsyncRemoteShell(),
+					"--copy-links", "-t", "--files-from=-",
+					Binaries.localBlobsDir().getPath() + "/",
+					node.getSSHName() + ":" + blobDir + "/");
+		}
+
+		// rebuilds the jar directory so that it reflects the new
+		// manifest
+		StringBuilder sh = new StringBuilder();
+		sh.append("rm -f " + jarDir + "/*");
+
+		for (ClassPathManifest.Entry e : manifest.getEntries())
+		{
+			sh.append(" && ln -s ../blobs/" + e.getBlobName() + " "
+					+ shQuote(jarDir + "/" + e.name));
+		}
+
+		Set<String> unusedBlobs = new HashSet<>();
+
+		for (String b : remoteBlobs)
+		{
+			if (ClassPathManifest.isBlobName(b) && ! manifest.getBlobNames().contains(b))
+			{
+				unusedBlobs.add(b);
+			}
+		}
+
+		if ( ! unusedBlobs.isEmpty())
+		{
+			sh.append(" && (cd " + blobDir + " && rm -f "
+					+ TextUtilities.concatene(unusedBlobs, " ") + ")");
+		}
+
+		sh.append(" && cat > " + manifestFile + " <<'" + manifestSeparator + "'\n"
+				+ manifest.toText() + manifestSeparator + "\n");
+		SSHUtils.execSh(sshFrontal, getTimeoutInSecond(), node, sh.toString());
+		getStartupMetrics().recordSince(StartupMetrics.DEPLOY, node, t);
+	}
+
+	private static final String manifestSeparator = "JACABOO_MANIFEST_END";
+
+	static String shQuote(String s)
+	{
+		return "'" + s.replace("'", "'\\''") + "'";
+	}
+
 	public N getFrontal()
 	{
 		return sshFrontal;
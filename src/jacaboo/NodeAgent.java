@@ -0,0 +1,471 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived JVM which runs applications for the master, so that the
+ * startup of the JVM, the loading of the framework classes and their JIT
+ * compilation are paid once per node instead of once per run.
+ * 
+ * The agent listens on a port of the loopback interface, which it writes to
+ * the port file of its host (in the directory of the application) together
+ * with its PID and the key it was started with. The master connects to it
+ * through its SSH shell (see {@link JavaCluster#setAgentMode(boolean)}) and
+ * then speaks the control protocol, as with a plain {@link MainClassRunner}.
+ * 
+ * The port is open to all the users of the host, so the port file, which
+ * only its owner can read, also holds a secret drawn at startup. Every
+ * session must begin with this secret on a line of its own, otherwise the
+ * connection is closed.
+ * 
+ * Every session loads the application from the current jar directory in its
+ * own class loader, so that runs do not share static state and always see
+ * the last deployed classes. The session links the blobs it uses into a
+ * directory of its own, so that they outlive a deployment which deletes
+ * them. The classes of the framework (and of the JDK)
+ * are shared by all sessions. The output of a session (stdout and stderr) is
+ * sent back on its connection.
+ * 
+ * An application calling System.exit() terminates the agent.
+ */
+public class NodeAgent
+{
+	/**
+	 * Evaluates to the name of the host in the shell. The home directory is
+	 * shared by all the nodes of a NAS group, so the files of every agent are
+	 * named after its host.
+	 */
+	final static String hostNameExpression = "$(hostname)";
+
+	static String getPortFileName(String host)
+	{
+		return "agent." + host + ".port";
+	}
+
+	static String getLogFileName(String host)
+	{
+		return "agent." + host + ".log";
+	}
+
+	/**
+	 * The packages which are loaded once for all sessions. The application
+	 * and the framework communicate through these classes, so they must not
+	 * be loaded twice.
+	 */
+	final static List<String> sharedPackages = Arrays.asList("java.", "javax.",
+			"sun.", "jdk.", "jacaboo.", "toools.");
+
+	/**
+	 * How long a new connection is given to send the secret.
+	 */
+	private final static int authenticationTimeoutMs = 10000;
+
+	private final static InheritableThreadLocal<PrintStream> sessionOutput = new InheritableThreadLocal<>();
+
+	private final static AtomicInteger sessionCount = new AtomicInteger();
+
+	// where the sessions link their blobs, or null if they use them directly
+	private static File sessionsDir;
+
+	public static void main(String[] args) throws IOException
+	{
+		Binaries.setApplicationName(args[0]);
+		String key = args[1];
+		String host = args[2];
+
+		final PrintStream agentOut = System.out;
+		System.setOut(new PrintStream(new SessionOutputStream(agentOut), true));
+		System.setErr(new PrintStream(new SessionOutputStream(System.err), true));
+
+		final String secret = newSecret();
+
+		// hidden, so that it is not taken for a blob. The sessions of the
+		// previous agent of the host are over.
+		sessionsDir = new File(Binaries.localBlobsDir().getPath(), ".sessions." + host);
+		delete(sessionsDir);
+		sessionsDir.mkdirs();
+
+		try (ServerSocket serverSocket = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress()))
+		{
+			writePortFile(serverSocket.getLocalPort(), key, secret, host);
+			agentOut.println("agent listening on port " + serverSocket.getLocalPort());
+
+			while (true)
+			{
+				final Socket socket = serverSocket.accept();
+
+				Thread t = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (authenticate(socket, secret))
+						{
+							runSession(socket);
+						}
+					}
+				}, "session " + socket.getPort());
+
+				t.start();
+			}
+		}
+	}
+
+	static String newSecret()
+	{
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder b = new StringBuilder();
+
+		for (byte x : bytes)
+		{
+			b.append(String.format("%02x", x));
+		}
+
+		return b.toString();
+	}
+
+	/**
+	 * Reads the first line of the connection, byte after byte so that nothing
+	 * of the session is consumed, and closes the connection unless it is the
+	 * secret. The shell checks that the agent is alive by connecting without
+	 * sending anything, which is not reported.
+	 */
+	static boolean authenticate(Socket socket, String secret)
+	{
+		try
+		{
+			socket.setSoTimeout(authenticationTimeoutMs);
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int c;
+
+			while ((c = in.read()) != - 1 && c != '\n' && line.size() <= secret.length())
+			{
+				line.write(c);
+			}
+
+			socket.setSoTimeout(0);
+
+			if (MessageDigest.isEqual(line.toByteArray(),
+					secret.getBytes(StandardCharsets.US_ASCII)))
+				return true;
+
+			if (c != - 1 || line.size() > 0)
+			{
+				System.err.println("rejecting connection from port " + socket.getPort());
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("rejecting connection from port " + socket.getPort()
+					+ ": " + e);
+		}
+
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+		}
+
+		return false;
+	}
+
+	static void runSession(Socket socket)
+	{
+		try
+		{
+			PrintStream out = new PrintStream(
+					new BufferedOutputStream(socket.getOutputStream(), 8192), true);
+
+			// inherited by the threads the application creates
+			sessionOutput.set(out);
+			URLClassLoader classLoader = null;
+			File sessionDir = sessionsDir == null ? null
+					: new File(sessionsDir, String.valueOf(sessionCount.incrementAndGet()));
+
+			try
+			{
+				classLoader = createApplicationClassLoader(sessionDir);
+				new MainClassRunner(classLoader).run(socket.getInputStream());
+			}
+			finally
+			{
+				out.flush();
+				sessionOutput.remove();
+				socket.close();
+
+				// releases the jar files, the classes go once unreachable
+				if (classLoader != null)
+				{
+					classLoader.close();
+				}
+
+				if (sessionDir != null)
+				{
+					delete(sessionDir);
+				}
+			}
+		}
+		catch (Throwable e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a class loader on the blobs the jar directory currently links
+	 * to. Blobs are never modified, and the ones of the session are
+	 * hard-linked into the given directory, so a deployment happening while
+	 * the application runs does not affect it.
+	 * 
+	 * @param sessionDir
+	 *            where to link the blobs, or null to use them in place
+	 */
+	static URLClassLoader createApplicationClassLoader(File sessionDir)
+			throws IOException
+	{
+		for (int attempt = 0;; ++attempt)
+		{
+			try
+			{
+				return new ApplicationClassLoader(listClassPath(sessionDir),
+						NodeAgent.class.getClassLoader());
+			}
+			catch (NoSuchFileException e)
+			{
+				// a deployment deleted a blob the jar directory linked to, it
+				// now links to the new ones
+				if (attempt == 10)
+					throw e;
+
+				if (sessionDir != null)
+				{
+					delete(sessionDir);
+				}
+			}
+		}
+	}
+
+	private static URL[] listClassPath(File sessionDir) throws IOException
+	{
+		File jarDir = new File(Binaries.jarDirectoryAbsolutePath());
+		File[] jars = jarDir.listFiles();
+		List<URL> urls = new ArrayList<>();
+
+		if (sessionDir != null)
+		{
+			sessionDir.mkdirs();
+		}
+
+		if (jars != null)
+		{
+			Arrays.sort(jars);
+
+			for (File jar : jars)
+			{
+				File blob = jar.getCanonicalFile();
+
+				if ( ! blob.exists())
+					throw new NoSuchFileException(blob.getPath());
+
+				if (sessionDir != null)
+				{
+					File link = new File(sessionDir, jar.getName());
+					Files.createLink(link.toPath(), blob.toPath());
+					blob = link;
+				}
+
+				try
+				{
+					urls.add(blob.toURI().toURL());
+				}
+				catch (MalformedURLException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		return urls.toArray(new URL[0]);
+	}
+
+	private static void delete(File f)
+	{
+		File[] children = f.listFiles();
+
+		if (children != null)
+		{
+			for (File c : children)
+			{
+				delete(c);
+			}
+		}
+
+		f.delete();
+	}
+
+	private static void writePortFile(int port, String key, String secret,
+			String host) throws IOException
+	{
+		String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		File f = new File(Binaries.localDir().getPath(), getPortFileName(host));
+		File tmp = new File(f.getPath() + ".tmp");
+
+		// the secret must not be readable by the other users, even for a
+		// moment
+		Files.deleteIfExists(tmp.toPath());
+		Files.createFile(tmp.toPath(), PosixFilePermissions
+				.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+
+		// the shell waits for the file to be non-empty, so it must be
+		// written at once
+		try (PrintStream ps = new PrintStream(tmp))
+		{
+			ps.println(port + " " + pid + " " + key + " " + secret);
+		}
+
+		if ( ! tmp.renameTo(f))
+			throw new IOException("cannot write " + f);
+
+		f.deleteOnExit();
+	}
+
+	/**
+	 * Loads the application classes itself, instead of asking its parent
+	 * first, except for the shared packages.
+	 */
+	static class ApplicationClassLoader extends URLClassLoader
+	{
+		static
+		{
+			ClassLoader.registerAsParallelCapable();
+		}
+
+		ApplicationClassLoader(URL[] urls, ClassLoader parent)
+		{
+			super(urls, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException
+		{
+			for (String p : sharedPackages)
+			{
+				if (name.startsWith(p))
+				{
+					return super.loadClass(name, resolve);
+				}
+			}
+
+			synchronized (getClassLoadingLock(name))
+			{
+				Class<?> c = findLoadedClass(name);
+
+				if (c == null)
+				{
+					try
+					{
+						c = findClass(name);
+					}
+					catch (ClassNotFoundException e)
+					{
+						return super.loadClass(name, resolve);
+					}
+				}
+
+				if (resolve)
+				{
+					resolveClass(c);
+				}
+
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Sends what is written to the output of the session of the current
+	 * thread, or to the given stream for the threads which belong to no
+	 * session.
+	 */
+	private static class SessionOutputStream extends OutputStream
+	{
+		private final PrintStream defaultOutput;
+
+		SessionOutputStream(PrintStream defaultOutput)
+		{
+			this.defaultOutput = defaultOutput;
+		}
+
+		private PrintStream current()
+		{
+			PrintStream s = sessionOutput.get();
+			return s == null ? defaultOutput : s;
+		}
+
+		@Override
+		public void write(int b)
+		{
+			current().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			current().write(b, off, len);
+		}
+
+		@Override
+		public void flush()
+		{
+			current().flush();
+		}
+	}
+}
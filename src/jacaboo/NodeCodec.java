@@ -0,0 +1,199 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of the nodes, used by their Externalizable methods.
+ * Addresses are written as their raw 4 or 16 bytes, integers as varints, and
+ * strings (host names, domains, login names, class names) go through a table
+ * so that each distinct string is written only once per stream. A host name is
+ * split into its first label and its domain, which is usually shared by all
+ * the nodes.
+ * 
+ * A string is written as a varint: 0 for null, 1 for a new string (followed by
+ * its UTF form, and added to the table), or 2 + the index of a string already
+ * in the table.
+ */
+class NodeCodec
+{
+	static class Writer
+	{
+		private final DataOutput out;
+		private final Map<String, Integer> table = new HashMap<>();
+
+		Writer(DataOutput out)
+		{
+			this.out = out;
+		}
+
+		DataOutput getOutput()
+		{
+			return out;
+		}
+
+		void writeVarInt(int v) throws IOException
+		{
+			while ((v & ~0x7F) != 0)
+			{
+				out.writeByte((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+
+			out.writeByte(v);
+		}
+
+		void writeString(String s) throws IOException
+		{
+			if (s == null)
+			{
+				writeVarInt(0);
+			}
+			else
+			{
+				Integer i = table.get(s);
+
+				if (i == null)
+				{
+					table.put(s, table.size());
+					writeVarInt(1);
+					out.writeUTF(s);
+				}
+				else
+				{
+					writeVarInt(i + 2);
+				}
+			}
+		}
+
+		void writeHostName(String name) throws IOException
+		{
+			int dot = name == null ? - 1 : name.indexOf('.');
+
+			if (dot < 0)
+			{
+				writeString(name);
+				writeString(null);
+			}
+			else
+			{
+				writeString(name.substring(0, dot));
+				writeString(name.substring(dot));
+			}
+		}
+
+		/**
+		 * Writes the address and the given name, which the address will have
+		 * once read, so that it never needs a reverse lookup.
+		 */
+		void writeAddress(InetAddress a, String name) throws IOException
+		{
+			byte[] ip = a.getAddress();
+			out.writeByte(ip.length);
+			out.write(ip);
+			writeHostName(name);
+		}
+	}
+
+	static class Reader
+	{
+		private final DataInput in;
+		private final List<String> table = new ArrayList<>();
+
+		Reader(DataInput in)
+		{
+			this.in = in;
+		}
+
+		DataInput getInput()
+		{
+			return in;
+		}
+
+		int readVarInt() throws IOException
+		{
+			int v = 0;
+
+			for (int shift = 0; shift < 32; shift += 7)
+			{
+				int b = in.readUnsignedByte();
+				v |= (b & 0x7F) << shift;
+
+				if ((b & 0x80) == 0)
+					return v;
+			}
+
+			throw new StreamCorruptedException("varint too long");
+		}
+
+		String readString() throws IOException
+		{
+			int v = readVarInt();
+
+			if (v == 0)
+			{
+				return null;
+			}
+			else if (v == 1)
+			{
+				String s = in.readUTF();
+				table.add(s);
+				return s;
+			}
+			else if (v - 2 < table.size())
+			{
+				return table.get(v - 2);
+			}
+			else
+			{
+				throw new StreamCorruptedException("unknown string #" + (v - 2));
+			}
+		}
+
+		String readHostName() throws IOException
+		{
+			String label = readString();
+			String domain = readString();
+			return domain == null ? label : label + domain;
+		}
+
+		InetAddress readAddress() throws IOException
+		{
+			int length = in.readUnsignedByte();
+
+			if (length != 4 && length != 16)
+				throw new StreamCorruptedException("invalid address length " + length);
+
+			byte[] ip = new byte[length];
+			in.readFully(ip);
+			// no lookup is done when the name is given
+			return InetAddress.getByAddress(readHostName(), ip);
+		}
+	}
+}
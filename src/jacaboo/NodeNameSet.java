@@ -20,8 +20,11 @@
 package jacaboo;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import toools.collections.Collections;
@@ -94,6 +97,37 @@ public class NodeNameSet extends ListSet<String>
 		return s;
 	}
 
+	/**
+	 * @return the n least loaded nodes among those which answer before the
+	 *         deadline
+	 * @param username
+	 *            the login name for the nodes whose name does not give one
+	 * @see LoadAwareSelector
+	 */
+	public NodeNameSet leastLoadedSubset(int n, String username, long deadlineMs)
+	{
+		return new LoadAwareSelector(username, deadlineMs).select(this, n);
+	}
+
+	/**
+	 * Resolves all the names in parallel.
+	 * 
+	 * @return the host names (without the login name) which could be resolved
+	 *         before the deadline, and their address
+	 * @see Resolver
+	 */
+	public Map<String, InetAddress> resolve(long deadlineMs)
+	{
+		List<String> hostnames = new ArrayList<>();
+
+		for (String name : this)
+		{
+			hostnames.add(name.substring(name.indexOf('@') + 1));
+		}
+
+		return Resolver.resolveAll(hostnames, deadlineMs);
+	}
+
 	public NodeNameSet subset(int n, Random random)
 	{
 		NodeNameSet r = new NodeNameSet();
@@ -21,6 +21,7 @@ package jacaboo;
 
 import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.Collection;
@@ -52,31 +53,53 @@ public class NodeSet<N extends HardwareNode> extends HashSet<N> implements Exter
 		return true;
 	}
 
+	/*
+	 * The nodes share one string table, so the login name, the domain and the
+	 * class of the nodes are written once for the whole set.
+	 */
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException
 	{
-		out.writeInt(size());
+		NodeCodec.Writer w = new NodeCodec.Writer(out);
+		w.writeVarInt(size());
 
 		for (N n : this)
 		{
-			out.writeObject(n);
+			w.writeString(n.getClass().getName());
+			n.write(w);
 		}
 	}
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
 	{
-		int size = in.readInt();
+		NodeCodec.Reader r = new NodeCodec.Reader(in);
+		int size = r.readVarInt();
 
 		for (int i = 0; i < size; ++i)
 		{
-			@SuppressWarnings("unchecked")
-			N n = (N) in.readObject();
-			assert n != null;
+			N n = newNode(r.readString());
+			n.read(r);
 			add(n);
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private N newNode(String className) throws ClassNotFoundException, IOException
+	{
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+
+		try
+		{
+			return (N) Class.forName(className, true,
+					cl == null ? NodeSet.class.getClassLoader() : cl).newInstance();
+		}
+		catch (InstantiationException | IllegalAccessException e)
+		{
+			throw new InvalidClassException(className, e.toString());
+		}
+	}
+
 	public Collection<String> toNodeNames()
 	{
 		Collection<String> r = new HashSet<>();
@@ -89,7 +112,7 @@ public class NodeSet<N extends HardwareNode> extends HashSet<N> implements Exter
 			}
 			else
 			{
-				r.add(n.getInetAddress().getHostName());
+				r.add(n.getName());
 			}
 		}
 
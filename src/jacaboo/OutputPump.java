@@ -0,0 +1,349 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import toools.text.LineStreamListener;
+
+/**
+ * Forwards the output of the processes of all nodes to their listeners,
+ * without dedicating threads to every stream.
+ * 
+ * Reading is done by a few pump threads which poll all the streams for
+ * available bytes. Virtual threads are not used for reading: a read on a pipe
+ * pins its carrier thread, so a few hundred nodes would hold all the carriers
+ * of the JVM. Raw bytes are queued in a bounded queue per stream; lines are
+ * decoded and delivered to the listeners by a separate set of delivery tasks,
+ * on virtual threads when the JVM provides them, so that a slow listener
+ * never delays reading. When the queue of a
+ * stream is full, its reading is paused until the listeners catch up.
+ */
+public class OutputPump
+{
+	public static final String pumpThreadsProperty = "biggrph.output.pumpThreads";
+
+	/**
+	 * The encoding of the output of the nodes, which is also the one of the
+	 * logs (see {@link LogSink}).
+	 */
+	public static final Charset defaultCharset = StandardCharsets.UTF_8;
+
+	private static final int chunkSize = 8192;
+	private static final int queueCapacity = 64;
+	private static final byte[] EOF = new byte[0];
+
+	private static OutputPump defaultPump;
+
+	private final Charset charset;
+	private final List<List<Stream>> pumpers = new CopyOnWriteArrayList<>();
+	private final AtomicInteger nextPumper = new AtomicInteger();
+	private final Executor deliveryExecutor;
+
+	public static synchronized OutputPump getDefault()
+	{
+		if (defaultPump == null)
+		{
+			defaultPump = new OutputPump(defaultCharset, FanOut.usesVirtualThreads(),
+					Integer.parseInt(System.getProperty(pumpThreadsProperty, "2")));
+		}
+
+		return defaultPump;
+	}
+
+	public OutputPump(Charset charset, boolean useVirtualThreads, int nbPumpThreads)
+	{
+		this.charset = charset;
+
+		for (int i = 0; i < nbPumpThreads; ++i)
+		{
+			final List<Stream> streams = new CopyOnWriteArrayList<>();
+			pumpers.add(streams);
+			Thread t = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					poll(streams);
+				}
+			}, "jacaboo-output-pump-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		deliveryExecutor = useVirtualThreads ? FanOut.getExecutor()
+				: createDeliveryExecutor();
+	}
+
+	/**
+	 * Forwards the given stream of the given process to the listeners, until
+	 * the end of the stream.
+	 */
+	public void pump(InputStream in, List<LineStreamListener> listeners, Process process)
+	{
+		Stream s = new Stream(in, listeners, process);
+		int i = Math.abs(nextPumper.getAndIncrement() % pumpers.size());
+		pumpers.get(i).add(s);
+	}
+
+	private void readToEnd(Stream s)
+	{
+		try
+		{
+			byte[] buf = new byte[chunkSize];
+
+			while (true)
+			{
+				int n = s.in.read(buf);
+
+				if (n < 0)
+					break;
+
+				s.queue.put(Arrays.copyOf(buf, n));
+				s.scheduleDelivery();
+			}
+		}
+		catch (IOException e)
+		{
+			// the stream was closed
+		}
+		catch (InterruptedException e)
+		{
+		}
+
+		s.end();
+	}
+
+	private void poll(List<Stream> streams)
+	{
+		byte[] buf = new byte[chunkSize];
+
+		while (true)
+		{
+			boolean idle = true;
+
+			for (final Stream s : streams)
+			{
+				try
+				{
+					int available = s.in.available();
+
+					if (available > 0)
+					{
+						// backpressure: leaves the bytes in the pipe
+						if (s.queue.remainingCapacity() == 0)
+							continue;
+
+						int n = s.in.read(buf, 0, Math.min(available, buf.length));
+						s.queue.put(Arrays.copyOf(buf, n));
+						s.scheduleDelivery();
+						idle = false;
+					}
+					else if ( ! s.process.isAlive())
+					{
+						// no more bytes will be written, but the pipe may still be
+						// held open by a child of the process, so the final read
+						// must not block the pump, nor a carrier of virtual
+						// threads
+						streams.remove(s);
+						Thread t = new Thread(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								readToEnd(s);
+							}
+						}, "jacaboo-output-drain");
+						t.setDaemon(true);
+						t.start();
+					}
+				}
+				catch (IOException e)
+				{
+					streams.remove(s);
+					s.end();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+
+			if (idle)
+			{
+				try
+				{
+					Thread.sleep(5);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	private static ExecutorService createDeliveryExecutor()
+	{
+		int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+		return Executors.newFixedThreadPool(n, new ThreadFactory()
+		{
+			private final AtomicInteger i = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "jacaboo-output-delivery-" + i.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private class Stream implements Runnable
+	{
+		final InputStream in;
+		final List<LineStreamListener> listeners;
+		final Process process;
+		final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueCapacity);
+		final AtomicBoolean delivering = new AtomicBoolean();
+
+		// the incomplete line
+		byte[] line = new byte[256];
+		int lineLength = 0;
+
+		Stream(InputStream in, List<LineStreamListener> listeners, Process process)
+		{
+			this.in = in;
+			this.listeners = listeners;
+			this.process = process;
+		}
+
+		void end()
+		{
+			try
+			{
+				queue.put(EOF);
+			}
+			catch (InterruptedException e)
+			{
+			}
+
+			scheduleDelivery();
+		}
+
+		void scheduleDelivery()
+		{
+			if (delivering.compareAndSet(false, true))
+			{
+				deliveryExecutor.execute(this);
+			}
+		}
+
+		// delivery of the queued bytes, by at most one task at a time so that
+		// lines are delivered in order
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				// a bounded batch, so that a busy stream doesn't starve the
+				// others
+				for (int i = 0; i < queueCapacity; ++i)
+				{
+					byte[] chunk = queue.poll();
+
+					if (chunk == null)
+						break;
+
+					decode(chunk);
+				}
+
+				delivering.set(false);
+
+				if (queue.isEmpty() || ! delivering.compareAndSet(false, true))
+					return;
+			}
+		}
+
+		private void decode(byte[] chunk)
+		{
+			if (chunk == EOF)
+			{
+				if (lineLength > 0)
+				{
+					deliver(lineLength);
+				}
+
+				return;
+			}
+
+			for (byte b : chunk)
+			{
+				if (b == '\n')
+				{
+					deliver(lineLength > 0 && line[lineLength - 1] == '\r'
+							? lineLength - 1 : lineLength);
+				}
+				else
+				{
+					if (lineLength == line.length)
+					{
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+
+					line[lineLength++] = b;
+				}
+			}
+		}
+
+		private void deliver(int length)
+		{
+			String s = new String(line, 0, length, charset);
+			lineLength = 0;
+
+			for (LineStreamListener l : listeners)
+			{
+				try
+				{
+					l.newLine(s);
+				}
+				catch (Throwable t)
+				{
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.Collection;
+
+/**
+ * Processes every element of a collection in parallel, through a
+ * {@link FanOut}. The processing is done when the constructor returns.
+ */
+public abstract class ParallelProcessing<E>
+{
+	public ParallelProcessing(FanOut fanOut, String phase, Collection<E> elements)
+	{
+		fanOut.process(phase, elements, this);
+	}
+
+	protected abstract void process(E e) throws Throwable;
+}
@@ -0,0 +1,270 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import toools.io.IORuntimeException;
+
+/**
+ * Checks which nodes accept TCP connections on their SSH port. All the
+ * connections are initiated at once (up to {@value #maxInFlight} at a time,
+ * to stay below the limit of open files) and followed by a single selector,
+ * so that probing many nodes takes about as long as the slowest reachable
+ * one. Every connection is given the deadline from the time it is initiated,
+ * so the nodes waiting for a slot are tried as long as the first ones. Unlike InetAddress.isReachable(), this
+ * needs no privilege and checks the service which will actually be used.
+ */
+public class Reachability
+{
+	public static final String sshPortProperty = "biggrph.ssh.port";
+	public static final String deadlineProperty = "biggrph.reachability.deadline";
+
+	static final int maxInFlight = 512;
+
+	public static class Result<N extends HardwareNode>
+	{
+		private final Map<N, Long> rtts = new HashMap<>();
+		private final Set<N> unreachable = new LinkedHashSet<>();
+
+		/**
+		 * @return the reachable nodes, and the time (in nanoseconds) it took
+		 *         to connect to each one
+		 */
+		public Map<N, Long> getConnectRTTs()
+		{
+			return Collections.unmodifiableMap(rtts);
+		}
+
+		public Set<N> getReachable()
+		{
+			return Collections.unmodifiableSet(rtts.keySet());
+		}
+
+		/**
+		 * @return the nodes which refused the connection, or did not accept it
+		 *         in time
+		 */
+		public Set<N> getUnreachable()
+		{
+			return Collections.unmodifiableSet(unreachable);
+		}
+
+		public boolean isReachable(N node)
+		{
+			return rtts.containsKey(node);
+		}
+	}
+
+	private final int port;
+	private final long deadlineMs;
+
+	/**
+	 * Probes the SSH port given by the {@value #sshPortProperty} property (22
+	 * by default), with the deadline given by the {@value #deadlineProperty}
+	 * property, in milliseconds (2 seconds by default).
+	 */
+	public Reachability()
+	{
+		this(Integer.getInteger(sshPortProperty, 22), Long.getLong(deadlineProperty, 2000));
+	}
+
+	public Reachability(int port, long deadlineMs)
+	{
+		this.port = port;
+		this.deadlineMs = deadlineMs;
+	}
+
+	public int getPort()
+	{
+		return port;
+	}
+
+	public long getDeadlineMs()
+	{
+		return deadlineMs;
+	}
+
+	public <N extends HardwareNode> Result<N> probe(Collection<N> nodes)
+	{
+		Result<N> r = new Result<>();
+		Iterator<N> toConnect = nodes.iterator();
+
+		// in the order they were initiated, which is the one of their deadline
+		Queue<Attempt<N>> inFlight = new ArrayDeque<>();
+
+		try (Selector selector = Selector.open())
+		{
+			while (true)
+			{
+				while (inFlight.size() < maxInFlight && toConnect.hasNext())
+				{
+					Attempt<N> a = connect(toConnect.next(), selector, r);
+
+					if (a != null)
+					{
+						inFlight.add(a);
+					}
+				}
+
+				if (inFlight.isEmpty())
+					break;
+
+				long remainingMs = (inFlight.peek().deadlineNs - System.nanoTime())
+						/ 1000000;
+
+				if (remainingMs > 0)
+				{
+					selector.select(remainingMs);
+
+					for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i
+							.hasNext();)
+					{
+						SelectionKey key = i.next();
+						i.remove();
+						finishConnect(key, r);
+					}
+				}
+
+				// the answered attempts and those out of time free their slot
+				long now = System.nanoTime();
+
+				for (Iterator<Attempt<N>> i = inFlight.iterator(); i.hasNext();)
+				{
+					Attempt<N> a = i.next();
+
+					if (a.key.isValid() && now - a.deadlineNs >= 0)
+					{
+						// no answer in time
+						r.unreachable.add(a.node);
+						a.key.cancel();
+						close((SocketChannel) a.key.channel());
+					}
+
+					if ( ! a.key.isValid())
+					{
+						i.remove();
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IORuntimeException(e);
+		}
+
+		return r;
+	}
+
+	private class Attempt<N>
+	{
+		final N node;
+		final long startNs = System.nanoTime();
+		final long deadlineNs = startNs + deadlineMs * 1000000;
+		SelectionKey key;
+
+		Attempt(N node)
+		{
+			this.node = node;
+		}
+	}
+
+	/**
+	 * @return the attempt if the connection is pending, null if it is done
+	 */
+	private <N extends HardwareNode> Attempt<N> connect(N node, Selector selector,
+			Result<N> r)
+	{
+		Attempt<N> a = new Attempt<>(node);
+		SocketChannel c = null;
+
+		try
+		{
+			c = SocketChannel.open();
+			c.configureBlocking(false);
+
+			if (c.connect(new InetSocketAddress(node.getInetAddress(), port)))
+			{
+				r.rtts.put(node, System.nanoTime() - a.startNs);
+				c.close();
+				return null;
+			}
+
+			a.key = c.register(selector, SelectionKey.OP_CONNECT, a);
+			return a;
+		}
+		catch (IOException e)
+		{
+			r.unreachable.add(node);
+			close(c);
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <N extends HardwareNode> void finishConnect(SelectionKey key,
+			Result<N> r)
+	{
+		Attempt<N> a = (Attempt<N>) key.attachment();
+		SocketChannel c = (SocketChannel) key.channel();
+
+		try
+		{
+			c.finishConnect();
+			r.rtts.put(a.node, System.nanoTime() - a.startNs);
+		}
+		catch (IOException e)
+		{
+			r.unreachable.add(a.node);
+		}
+		finally
+		{
+			key.cancel();
+			close(c);
+		}
+	}
+
+	private static void close(SocketChannel c)
+	{
+		if (c != null)
+		{
+			try
+			{
+				c.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+}
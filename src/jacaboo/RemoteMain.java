@@ -27,4 +27,20 @@ public abstract class RemoteMain
 	protected abstract void main(List<String> argList);
 	
 	protected abstract void stop();
+
+	/**
+	 * Called when the master sends a message to this application. Does
+	 * nothing by default.
+	 */
+	protected void onMessage(byte[] message)
+	{
+	}
+
+	/**
+	 * Sends a message to the master, see {@link ControlChannel}.
+	 */
+	protected void sendToMaster(byte[] message)
+	{
+		MainClassRunner.send(ControlProtocol.USER, message);
+	}
 }
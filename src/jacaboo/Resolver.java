@@ -0,0 +1,250 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Name resolution for the nodes, with an in-process cache of forward and
+ * reverse lookups. Building a cluster resolves all its names at once, in
+ * parallel, so that the DNS latencies overlap instead of adding up, and the
+ * nodes never query the DNS again afterwards.
+ * 
+ * Cached entries expire after the time given by the {@value #ttlProperty}
+ * property, in milliseconds (10 minutes by default), so that a long-lived
+ * master eventually sees the new address of a host. The nodes already built
+ * keep the address they were built with.
+ */
+public class Resolver
+{
+	public static final String deadlineProperty = "biggrph.dns.deadline";
+	public static final String ttlProperty = "biggrph.dns.ttl";
+
+	private static final long ttlMs = Long.getLong(ttlProperty, 600000);
+
+	private static class Entry<V>
+	{
+		final V value;
+		final long expiry = System.currentTimeMillis() + ttlMs;
+
+		Entry(V value)
+		{
+			this.value = value;
+		}
+	}
+
+	private static final Map<String, Entry<InetAddress>> addresses = new ConcurrentHashMap<>();
+	private static final Map<InetAddress, Entry<String>> names = new ConcurrentHashMap<>();
+
+	// bounds the number of lookups at once, each of which holds a thread
+	private static final FanOut fanOut = new FanOut();
+
+	private static <K, V> V getCached(Map<K, Entry<V>> cache, K key)
+	{
+		Entry<V> e = cache.get(key);
+
+		if (e == null)
+			return null;
+
+		if (System.currentTimeMillis() > e.expiry)
+		{
+			cache.remove(key, e);
+			return null;
+		}
+
+		return e.value;
+	}
+
+	/**
+	 * @return the address of the given host, resolved only if it is not in
+	 *         the cache
+	 */
+	public static InetAddress resolve(String name) throws UnknownHostException
+	{
+		InetAddress a = getCached(addresses, name);
+
+		if (a == null)
+		{
+			a = InetAddress.getByName(name);
+			addresses.put(name, new Entry<>(a));
+		}
+
+		return a;
+	}
+
+	/**
+	 * @return the name of the host, looked up in the DNS (reverse lookup) only
+	 *         if the address was not obtained from a name, and only if it is
+	 *         not in the cache
+	 */
+	public static String getName(InetAddress a)
+	{
+		String name = getCached(names, a);
+
+		if (name == null)
+		{
+			name = a.getHostName();
+			names.put(a, new Entry<>(name));
+		}
+
+		return name;
+	}
+
+	/**
+	 * Resolves the given names in parallel, within the deadline given by the
+	 * {@value #deadlineProperty} property, in milliseconds (10s by default).
+	 */
+	public static Map<String, InetAddress> resolveAll(Collection<String> names)
+	{
+		return resolveAll(names, Long.getLong(deadlineProperty, 10000));
+	}
+
+	/**
+	 * Resolves the given names in parallel. The names which are not in the
+	 * cache are looked up through a {@link FanOut}, whose parallelism bounds
+	 * the number of threads waiting for the DNS.
+	 * 
+	 * @return the names which could be resolved before the deadline, and their
+	 *         address, in the order of the given collection
+	 */
+	public static Map<String, InetAddress> resolveAll(Collection<String> names,
+			long deadlineMs)
+	{
+		final long deadline = System.currentTimeMillis() + deadlineMs;
+		final Map<String, InetAddress> resolved = new ConcurrentHashMap<>();
+		final List<String> unknown = new ArrayList<>();
+
+		for (String name : new LinkedHashSet<>(names))
+		{
+			InetAddress a = getCached(addresses, name);
+
+			if (a != null)
+			{
+				resolved.put(name, a);
+			}
+			else
+			{
+				unknown.add(name);
+			}
+		}
+
+		if ( ! unknown.isEmpty())
+		{
+			// the caller only waits until the deadline, late lookups go on in
+			// the background and fill the cache
+			CompletableFuture<Void> all = CompletableFuture.runAsync(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					new ParallelProcessing<String>(fanOut, "name resolution", unknown)
+					{
+						@Override
+						protected void process(String name)
+						{
+							// not started in time, it would be ignored anyway
+							if (System.currentTimeMillis() >= deadline)
+								return;
+
+							try
+							{
+								resolved.put(name, resolve(name));
+							}
+							catch (UnknownHostException e)
+							{
+								// left out of the result
+							}
+						}
+					};
+				}
+			}, FanOut.getExecutor());
+
+			try
+			{
+				all.get(deadlineMs, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException | ExecutionException e)
+			{
+				// some names are late
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Map<String, InetAddress> r = new LinkedHashMap<>();
+
+		for (String name : names)
+		{
+			InetAddress a = resolved.get(name);
+
+			if (a != null)
+			{
+				r.put(name, a);
+			}
+		}
+
+		return r;
+	}
+
+	/**
+	 * Resolves the given names in parallel.
+	 * 
+	 * @throws UnknownHostException
+	 *             if some names cannot be resolved before the deadline
+	 */
+	public static Map<String, InetAddress> resolveAllOrFail(Collection<String> names,
+			long deadlineMs) throws UnknownHostException
+	{
+		Map<String, InetAddress> r = resolveAll(names, deadlineMs);
+
+		if (r.size() < names.size())
+		{
+			List<String> unresolved = new ArrayList<>();
+
+			for (String name : names)
+			{
+				if ( ! r.containsKey(name))
+				{
+					unresolved.add(name);
+				}
+			}
+
+			if ( ! unresolved.isEmpty())
+				throw new UnknownHostException("cannot resolve " + unresolved + " in "
+						+ deadlineMs + "ms");
+		}
+
+		return r;
+	}
+}
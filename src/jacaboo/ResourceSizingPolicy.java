@@ -0,0 +1,147 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the heap size and the number of threads of the JVM of a node from
+ * its {@link HardwareInventory}. The heap gets a fraction of the usable
+ * memory, once a reserve for the system and the JVM itself (stacks, code,
+ * metaspace, direct buffers) is put aside.
+ */
+public class ResourceSizingPolicy
+{
+	public static final ResourceSizingPolicy defaultPolicy = new ResourceSizingPolicy(
+			0.8, 1024);
+
+	private final double memoryFraction;
+	private final int reservedMemoryInMegaBytes;
+
+	public ResourceSizingPolicy(double memoryFraction, int reservedMemoryInMegaBytes)
+	{
+		if (memoryFraction <= 0 || memoryFraction > 1)
+			throw new IllegalArgumentException("invalid memory fraction: " + memoryFraction);
+
+		this.memoryFraction = memoryFraction;
+		this.reservedMemoryInMegaBytes = reservedMemoryInMegaBytes;
+	}
+
+	public double getMemoryFraction()
+	{
+		return memoryFraction;
+	}
+
+	public int getReservedMemoryInMegaBytes()
+	{
+		return reservedMemoryInMegaBytes;
+	}
+
+	/**
+	 * @return the heap size, or -1 if the memory of the node is unknown
+	 */
+	public int getHeapSizeInMegaBytes(HardwareInventory inv)
+	{
+		return getHeapSizeInMegaBytes(inv, 1);
+	}
+
+	/**
+	 * @param share
+	 *            the number of JVMs which share the node
+	 */
+	public int getHeapSizeInMegaBytes(HardwareInventory inv, int share)
+	{
+		long memory = inv.getUsableMemory();
+
+		if (memory < 0)
+			return - 1;
+
+		long mb = memory / (1024 * 1024);
+
+		// the reserve would leave nothing on small nodes
+		long reserve = Math.min(reservedMemoryInMegaBytes, mb / 4);
+		return (int) Math.max(64, (mb - reserve) * memoryFraction / share);
+	}
+
+	/**
+	 * Uses the formula of the JVM (all threads up to 8 CPUs, then 5/8 of the
+	 * others), applied to the CPUs the node really has.
+	 */
+	public int getParallelGCThreads(int cpus)
+	{
+		return cpus <= 8 ? cpus : 8 + (cpus - 8) * 5 / 8;
+	}
+
+	public int getConcGCThreads(int cpus)
+	{
+		return Math.max(1, (getParallelGCThreads(cpus) + 2) / 4);
+	}
+
+	public List<String> getParameters(HardwareInventory inv)
+	{
+		return getParameters(inv, 1, null);
+	}
+
+	/**
+	 * @param share
+	 *            the number of JVMs which share the node, each one getting an
+	 *            equal part of its memory and cores
+	 * @param jvm
+	 *            the JVM the parameters are for, or null if it is unknown, in
+	 *            which case only the options of all versions are given
+	 */
+	public List<String> getParameters(HardwareInventory inv, int share, JVM jvm)
+	{
+		List<String> l = new ArrayList<>();
+		int heap = getHeapSizeInMegaBytes(inv, share);
+
+		if (heap > 0)
+		{
+			l.add("-Xmx" + heap + "M");
+			l.add("-Xms" + heap + "M");
+		}
+
+		int cpus = inv.getUsableCores() < 0 ? - 1
+				: Math.max(1, inv.getUsableCores() / share);
+
+		if (cpus > 0)
+		{
+			// -XX:ActiveProcessorCount appeared in 10 (and 8u191, which cannot
+			// be told from the other updates of 8)
+			if (jvm != null && jvm.getVersion() >= 10)
+			{
+				l.add("-XX:ActiveProcessorCount=" + cpus);
+			}
+
+			l.add("-XX:ParallelGCThreads=" + getParallelGCThreads(cpus));
+			l.add("-XX:ConcGCThreads=" + getConcGCThreads(cpus));
+		}
+
+		return l;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (int) (memoryFraction * 100) + "% of the memory above "
+				+ reservedMemoryInMegaBytes + "MB";
+	}
+}
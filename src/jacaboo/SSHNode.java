@@ -19,17 +19,16 @@
 
 package jacaboo;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import toools.extern.Proces;
 import toools.io.IORuntimeException;
@@ -37,11 +36,16 @@ import toools.text.LineStreamListener;
 
 public class SSHNode extends HardwareNode
 {
-	private final List<LineStreamListener> stdoutLinesListeners = new ArrayList<>();
-	private final List<LineStreamListener> stderrLinesListeners = new ArrayList<>();
+	static final long serialVersionUID = 0L;
+
+	private final List<LineStreamListener> stdoutLinesListeners =
+			new CopyOnWriteArrayList<>();
+	private final List<LineStreamListener> stderrLinesListeners =
+			new CopyOnWriteArrayList<>();
 	private String loginName;
 	private OutputStream stdin;
 	private Process process;
+	private ControlChannel controlChannel;
 
 	/**
 	 * For serialization. Do not use.
@@ -72,6 +76,12 @@ public class SSHNode extends HardwareNode
 				.add(new ToStreamLineReceiver(System.err, "> " + this + ": "));
 	}
 
+	protected SSHNode(InetAddress addr, String loginName)
+	{
+		this(addr);
+		this.loginName = loginName;
+	}
+
 	protected void fromString(String nodeSpec, String defaultUsername)
 	{
 		String comps[] = nodeSpec.split("@");
@@ -105,11 +115,11 @@ public class SSHNode extends HardwareNode
 	{
 		if (loginName == null)
 		{
-			return getInetAddress().getHostName();
+			return getName();
 		}
 		else
 		{
-			return loginName + "@" + getInetAddress().getHostName();
+			return loginName + "@" + getName();
 		}
 	}
 
@@ -129,18 +139,123 @@ public class SSHNode extends HardwareNode
 		return stderrLinesListeners;
 	}
 
+	/**
+	 * Writes the output of this node to rotating files in the given
+	 * directory, instead of the console.
+	 * 
+	 * @param maxSegmentSize
+	 *            the size beyond which a file is compressed and a new one is
+	 *            started
+	 * @param tailSize
+	 *            the number of lines kept in memory, see
+	 *            {@link #getStdoutTail()}
+	 */
+	public void captureOutput(File directory, long maxSegmentSize, int tailSize)
+	{
+		replaceConsoleReceiver(stdoutLinesListeners,
+				new ToFileLineReceiver(new File(directory, this + ".out"),
+						maxSegmentSize, tailSize));
+		replaceConsoleReceiver(stderrLinesListeners,
+				new ToFileLineReceiver(new File(directory, this + ".err"),
+						maxSegmentSize, tailSize));
+	}
+
+	private static void replaceConsoleReceiver(List<LineStreamListener> listeners,
+			ToFileLineReceiver r)
+	{
+		for (LineStreamListener l : listeners)
+		{
+			if (l instanceof ToStreamLineReceiver || l instanceof ToFileLineReceiver)
+			{
+				listeners.remove(l);
+
+				if (l instanceof ToFileLineReceiver)
+				{
+					((ToFileLineReceiver) l).close();
+				}
+			}
+		}
+
+		listeners.add(r);
+	}
+
+	public List<String> getStdoutTail()
+	{
+		return getTail(stdoutLinesListeners);
+	}
+
+	public List<String> getStderrTail()
+	{
+		return getTail(stderrLinesListeners);
+	}
+
+	private static List<String> getTail(List<LineStreamListener> listeners)
+	{
+		for (LineStreamListener l : listeners)
+		{
+			if (l instanceof ToFileLineReceiver)
+			{
+				return ((ToFileLineReceiver) l).getTail();
+			}
+		}
+
+		return new ArrayList<>();
+	}
+
+	/**
+	 * @return the number of lines of this node which were not printed
+	 *         because the console could not keep up
+	 */
+	public long getDroppedOutputLineCount()
+	{
+		long n = 0;
+
+		for (LineStreamListener l : stdoutLinesListeners)
+		{
+			if (l instanceof ToStreamLineReceiver)
+			{
+				n += ((ToStreamLineReceiver) l).getDroppedLineCount();
+			}
+		}
+
+		for (LineStreamListener l : stderrLinesListeners)
+		{
+			if (l instanceof ToStreamLineReceiver)
+			{
+				n += ((ToStreamLineReceiver) l).getDroppedLineCount();
+			}
+		}
+
+		return n;
+	}
+
 	@Override
-	public void writeExternal(ObjectOutput out) throws IOException
+	protected void write(NodeCodec.Writer w) throws IOException
 	{
-		super.writeExternal(out);
-		out.writeUTF(getLoginName());
+		super.write(w);
+		w.writeString(getLoginName());
 	}
 
 	@Override
-	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+	protected void read(NodeCodec.Reader r) throws IOException
 	{
-		super.readExternal(in);
-		loginName = in.readUTF();
+		super.read(r);
+		loginName = r.readString();
+	}
+
+	/**
+	 * Probes the hardware of this node with one SSH command, and keeps the
+	 * result (see {@link #getInventory()}).
+	 * 
+	 * @param frontal
+	 *            the node to connect through, or null
+	 */
+	public HardwareInventory probeInventory(SSHNode frontal, int timeoutInSecond)
+	{
+		HardwareInventory inv = HardwareInventory.parse(SSHUtils.execSh(frontal,
+				timeoutInSecond, this, HardwareInventory.probeScript));
+		setInventory(inv);
+		return inv;
 	}
 
 	public void kill_9_1()
@@ -152,46 +267,14 @@ public class SSHNode extends HardwareNode
 	{
 		process = Runtime.getRuntime().exec(cmdLine.toArray(new String[0]));
 		stdin = process.getOutputStream();
+		controlChannel = new ControlChannel(this, stdin);
 
-		forwardStreamBg(process.getInputStream(), stdoutLinesListeners);
-		forwardStreamBg(process.getErrorStream(), stderrLinesListeners);
-	}
-
-	private void forwardStreamBg(InputStream source, List<LineStreamListener> out)
-			throws IOException
-	{
-		new Thread(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				try
-				{
-					BufferedReader r = new BufferedReader(new InputStreamReader(source));
-
-					while (true)
-					{
-						String line = r.readLine();
-
-						if (line == null)
-						{
-							return;
-						}
-						else
-						{
-							for (LineStreamListener o : out)
-							{
-								o.newLine(line);
-							}
-						}
-					}
-				}
-				catch (IOException e)
-				{
-					e.printStackTrace();
-				}
-			}
-		}).start();
+		OutputPump.getDefault().pump(process.getInputStream(),
+				Collections.singletonList(
+						controlChannel.createDispatcher(stdoutLinesListeners)),
+				process);
+		OutputPump.getDefault().pump(process.getErrorStream(), stderrLinesListeners,
+				process);
 	}
 
 	public void stop()
@@ -235,8 +318,32 @@ public class SSHNode extends HardwareNode
 
 	public void writeToStdin(String command) throws IOException
 	{
-		stdin.write((command + "\n").getBytes());
-		stdin.flush();
+		synchronized (stdin)
+		{
+			stdin.write((command + "\n").getBytes());
+			stdin.flush();
+		}
+	}
+
+	/**
+	 * @return the control channel to the JVM started by the last call to
+	 *         exec(), or null if none was started
+	 */
+	public ControlChannel getControlChannel()
+	{
+		return controlChannel;
+	}
+
+	/**
+	 * Waits for the process running on this node to terminate.
+	 * 
+	 * @return true if no process is running anymore
+	 */
+	public boolean waitForTermination(long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		Process p = process;
+		return p == null || p.waitFor(timeout, unit);
 	}
 
 	public boolean isProcessTerminated()
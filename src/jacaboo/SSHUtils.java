@@ -19,6 +19,7 @@
 
 package jacaboo;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -31,6 +32,17 @@ public class SSHUtils
 	public static final String sshCommandNameProperty = "biggrph.ssh.command";
 	public static final String sshCommandNameDefault = "ssh";
 
+	public static final String sshMultiplexingProperty = "biggrph.ssh.multiplexing";
+	public static final String sshControlPersistProperty = "biggrph.ssh.controlPersist";
+
+	/**
+	 * The socket of the master connection. %C is a hash of the local host,
+	 * remote host, port and user name, which keeps the path below the length
+	 * limit of Unix sockets. When a frontal is used, the path is interpreted
+	 * on the frontal.
+	 */
+	public static final String sshControlPath = "~/.ssh/jacaboo-%C";
+
 	public static String getSSHCommandName()
 	{
 		return System.getProperty(sshCommandNameProperty, sshCommandNameDefault);
@@ -56,9 +68,91 @@ public class SSHUtils
 	 */
 	public static String[] getSSHOptionsArray()
 	{
-		String options[] = { "-o", "ForwardX11=no", "-o", "StrictHostKeyChecking=no",
-				"-o", "BatchMode=yes" };
-		return options;
+		if (isMultiplexingEnabled())
+		{
+			String options[] = { "-o", "ForwardX11=no", "-o", "StrictHostKeyChecking=no",
+					"-o", "BatchMode=yes", "-o", "ControlMaster=auto", "-o",
+					"ControlPath=" + sshControlPath, "-o",
+					"ControlPersist=" + getControlPersistInSecond() };
+			return options;
+		}
+		else
+		{
+			String options[] = { "-o", "ForwardX11=no", "-o", "StrictHostKeyChecking=no",
+					"-o", "BatchMode=yes" };
+			return options;
+		}
+	}
+
+	/**
+	 * Multiplexing makes all the commands (and rsync transfers) to a given
+	 * node share a single SSH connection, instead of paying a full handshake
+	 * for each of them. It can be disabled by setting the
+	 * {@value #sshMultiplexingProperty} property to false.
+	 */
+	public static boolean isMultiplexingEnabled()
+	{
+		return Boolean.parseBoolean(System.getProperty(sshMultiplexingProperty, "true"));
+	}
+
+	/**
+	 * How long an idle master connection stays open.
+	 */
+	public static int getControlPersistInSecond()
+	{
+		return Integer.parseInt(System.getProperty(sshControlPersistProperty, "60"));
+	}
+
+	/**
+	 * Opens the master connection to the given node, so that the commands
+	 * executed concurrently afterwards all multiplex over it, rather than
+	 * racing to open their own.
+	 */
+	public static void openMasterConnection(String sshCommand, int timeoutInSecond,
+			SSHNode n)
+	{
+		if ( ! isMultiplexingEnabled())
+			return;
+
+		List<String> args = getSSHOptions(timeoutInSecond);
+		args.add(n.getSSHName());
+		args.add("true");
+
+		try
+		{
+			Proces.rawExec(sshCommand, args.toArray(new String[0]));
+		}
+		catch (IOException e)
+		{
+			System.err.println("cannot open SSH master connection to " + n + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Asks the master connection to the given node to exit. Master
+	 * connections which are not explicitly closed expire after
+	 * {@link #getControlPersistInSecond()} seconds of inactivity.
+	 */
+	public static void closeMasterConnection(String sshCommand, SSHNode n)
+	{
+		if ( ! isMultiplexingEnabled())
+			return;
+
+		List<String> args = new ArrayList<String>();
+		args.add("-o");
+		args.add("ControlPath=" + sshControlPath);
+		args.add("-O");
+		args.add("exit");
+		args.add(n.getSSHName());
+
+		try
+		{
+			Proces.rawExec(sshCommand, args.toArray(new String[0]));
+		}
+		catch (IOException e)
+		{
+		}
 	}
 
 
@@ -84,6 +178,8 @@ public class SSHUtils
 			List<String> args = getSSHOptions(timeoutInSecond);
 			args.add(0, sshFrontal.getSSHName());
 			args.add(getSSHCommandName());
+			// the hop from the frontal to the node is multiplexed too
+			args.addAll(getSSHOptions(timeoutInSecond));
 			args.add(n.getSSHName());
 			args.add("bash");
 			args.add("--posix");
@@ -0,0 +1,205 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Durations of the startup phases, for every node. Phases which are performed
+ * on a NAS group are accounted to the node of the group which did the work.
+ * Recording several durations for the same node and phase accumulates them.
+ */
+public class StartupMetrics
+{
+	public static final String REACHABILITY = "reachability check";
+	public static final String NAS_DISCOVERY = "NAS discovery";
+	public static final String JVM_PROBE = "JVM probe";
+	public static final String JVM_INSTALL = "JVM install";
+	public static final String HARDWARE_PROBE = "hardware probe";
+	public static final String DEPLOY = "deploy";
+	public static final String SSH_CONNECT = "SSH connect";
+	public static final String MAIN_STARTED = "time to main";
+
+	public static class Histogram
+	{
+		public final int count;
+		public final long min, p50, p95, max;
+		public final double mean;
+
+		Histogram(List<Long> durations)
+		{
+			Collections.sort(durations);
+			this.count = durations.size();
+
+			if (count == 0)
+			{
+				min = p50 = p95 = max = 0;
+				mean = 0;
+			}
+			else
+			{
+				min = durations.get(0);
+				p50 = percentile(durations, 50);
+				p95 = percentile(durations, 95);
+				max = durations.get(count - 1);
+				long sum = 0;
+
+				for (long d : durations)
+				{
+					sum += d;
+				}
+
+				mean = sum / (double) count;
+			}
+		}
+
+		// nearest-rank percentile
+		private static long percentile(List<Long> sorted, int p)
+		{
+			int rank = (int) Math.ceil(p / 100d * sorted.size());
+			return sorted.get(Math.max(0, rank - 1));
+		}
+
+		@Override
+		public String toString()
+		{
+			return "n=" + count + " p50=" + p50 + "ms p95=" + p95 + "ms max=" + max + "ms";
+		}
+	}
+
+	// phase => node => duration in ms
+	private final Map<String, Map<String, Long>> timings = new LinkedHashMap<>();
+
+	public void record(String phase, Object node, long durationMs)
+	{
+		synchronized (timings)
+		{
+			Map<String, Long> m = timings.get(phase);
+
+			if (m == null)
+			{
+				timings.put(phase, m = new HashMap<>());
+			}
+
+			String name = node.toString();
+			Long previous = m.get(name);
+			m.put(name, previous == null ? durationMs : previous + durationMs);
+		}
+	}
+
+	/**
+	 * Records the time elapsed since the given {@link System#nanoTime()}.
+	 */
+	public void recordSince(String phase, Object node, long startNs)
+	{
+		record(phase, node, (System.nanoTime() - startNs) / 1000000);
+	}
+
+	public Set<String> getPhases()
+	{
+		synchronized (timings)
+		{
+			return new LinkedHashSet<>(timings.keySet());
+		}
+	}
+
+	public Map<String, Long> getTimings(String phase)
+	{
+		synchronized (timings)
+		{
+			Map<String, Long> m = timings.get(phase);
+			return m == null ? new TreeMap<String, Long>() : new TreeMap<>(m);
+		}
+	}
+
+	public Histogram getHistogram(String phase)
+	{
+		return new Histogram(new ArrayList<>(getTimings(phase).values()));
+	}
+
+	public void clear()
+	{
+		synchronized (timings)
+		{
+			timings.clear();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (String phase : getPhases())
+		{
+			b.append(phase + ": " + getHistogram(phase) + "\n");
+		}
+
+		return b.toString();
+	}
+
+	public String toJSON()
+	{
+		StringBuilder b = new StringBuilder();
+		b.append("{");
+		boolean firstPhase = true;
+
+		for (String phase : getPhases())
+		{
+			if ( ! firstPhase)
+				b.append(",");
+
+			firstPhase = false;
+			Histogram h = getHistogram(phase);
+			b.append("\n  " + jsonString(phase) + ": {\"count\": " + h.count
+					+ ", \"min\": " + h.min + ", \"p50\": " + h.p50 + ", \"p95\": "
+					+ h.p95 + ", \"max\": " + h.max + ", \"mean\": " + h.mean
+					+ ", \"nodes\": {");
+			boolean firstNode = true;
+
+			for (Map.Entry<String, Long> e : getTimings(phase).entrySet())
+			{
+				if ( ! firstNode)
+					b.append(", ");
+
+				firstNode = false;
+				b.append(jsonString(e.getKey()) + ": " + e.getValue());
+			}
+
+			b.append("}}");
+		}
+
+		b.append("\n}\n");
+		return b.toString();
+	}
+
+	private static String jsonString(String s)
+	{
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,324 @@
+/////////////////////////////////////////////////////////////////////////////////////////
+// 
+//                 Université de Nice Sophia-Antipolis  (UNS) - 
+//                 Centre National de la Recherche Scientifique (CNRS)
+//                 Copyright © 2015 UNS, CNRS All Rights Reserved.
+// 
+//     These computer program listings and specifications, herein, are
+//     the property of Université de Nice Sophia-Antipolis and CNRS
+//     shall not be reproduced or copied or used in whole or in part as
+//     the basis for manufacture or sale of items without written permission.
+//     For a license agreement, please contact:
+//     <mailto: licensing@sattse.com> 
+//
+//
+//
+//     Author: Luc Hogie – Laboratoire I3S - luc.hogie@unice.fr
+//
+//////////////////////////////////////////////////////////////////////////////////////////
+
+package jacaboo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import toools.io.IORuntimeException;
+import toools.text.LineStreamListener;
+
+/**
+ * Writes the lines of a node to a file, through a large buffer. When the file
+ * exceeds the maximum segment size, it is closed and compressed in the
+ * background (as file.1.gz, file.2.gz...) and a new one is started. The last
+ * lines are also kept in memory, for a quick look at what the node is doing.
+ */
+public class ToFileLineReceiver implements LineStreamListener
+{
+	private static final int bufferSize = 1024 * 1024;
+
+	private static final ExecutorService compressor = Executors
+			.newSingleThreadExecutor(daemon("jacaboo-output-compressor"));
+	private static final ScheduledExecutorService flusher = Executors
+			.newSingleThreadScheduledExecutor(daemon("jacaboo-output-flusher"));
+	private static final Set<ToFileLineReceiver> openReceivers = Collections
+			.newSetFromMap(new ConcurrentHashMap<ToFileLineReceiver, Boolean>());
+
+	static
+	{
+		// lines become visible in the file at most one second after they were
+		// received
+		flusher.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (ToFileLineReceiver r : openReceivers)
+				{
+					r.flush();
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+
+		// the last lines of a node are often the ones explaining its failure
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				for (ToFileLineReceiver r : openReceivers)
+				{
+					r.close();
+				}
+			}
+		});
+	}
+
+	private final File file;
+	private final long maxSegmentSize;
+	private final int tailSize;
+	private final ArrayDeque<String> tail;
+	private OutputStream os;
+	private long segmentSize;
+	private int segmentCount;
+
+	public ToFileLineReceiver(File file, long maxSegmentSize, int tailSize)
+	{
+		if (maxSegmentSize <= 0)
+			throw new IllegalArgumentException("invalid segment size: " + maxSegmentSize);
+
+		this.file = file;
+		this.maxSegmentSize = maxSegmentSize;
+		this.tailSize = tailSize;
+		this.tail = new ArrayDeque<>(tailSize);
+		file.getParentFile().mkdirs();
+		segmentCount = findLastSegment();
+
+		// the file of a previous capture becomes a segment, rather than being
+		// overwritten
+		if (file.length() > 0)
+		{
+			try
+			{
+				archiveCurrentSegment();
+			}
+			catch (IOException e)
+			{
+				throw new IORuntimeException(e);
+			}
+		}
+
+		open();
+		openReceivers.add(this);
+	}
+
+	/*
+	 * Numbering goes on after the segments already in the directory, be they
+	 * compressed or not.
+	 */
+	private int findLastSegment()
+	{
+		int last = 0;
+		String prefix = file.getName() + ".";
+		String[] names = file.getParentFile().list();
+
+		if (names != null)
+		{
+			for (String name : names)
+			{
+				if (name.startsWith(prefix))
+				{
+					String n = name.substring(prefix.length());
+
+					if (n.endsWith(".gz"))
+					{
+						n = n.substring(0, n.length() - 3);
+					}
+
+					try
+					{
+						last = Math.max(last, Integer.parseInt(n));
+					}
+					catch (NumberFormatException e)
+					{
+						// not a segment
+					}
+				}
+			}
+		}
+
+		return last;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	@Override
+	public synchronized void newLine(String line)
+	{
+		if (tailSize > 0)
+		{
+			if (tail.size() == tailSize)
+			{
+				tail.removeFirst();
+			}
+
+			tail.addLast(line);
+		}
+
+		if (os == null)
+			return;
+
+		try
+		{
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			os.write(bytes);
+			os.write('\n');
+			segmentSize += bytes.length + 1;
+
+			if (segmentSize >= maxSegmentSize)
+			{
+				rotate();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return the last lines received, the most recent last
+	 */
+	public synchronized List<String> getTail()
+	{
+		return new ArrayList<>(tail);
+	}
+
+	public synchronized void flush()
+	{
+		if (os != null)
+		{
+			try
+			{
+				os.flush();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public synchronized void close()
+	{
+		openReceivers.remove(this);
+
+		if (os != null)
+		{
+			try
+			{
+				os.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+
+			os = null;
+		}
+	}
+
+	private void open()
+	{
+		try
+		{
+			os = new BufferedOutputStream(new FileOutputStream(file), bufferSize);
+			segmentSize = 0;
+		}
+		catch (IOException e)
+		{
+			throw new IORuntimeException(e);
+		}
+	}
+
+	private void rotate() throws IOException
+	{
+		os.close();
+		archiveCurrentSegment();
+		open();
+	}
+
+	private void archiveCurrentSegment() throws IOException
+	{
+		final File segment = new File(file.getPath() + "." + ++ segmentCount);
+
+		if ( ! file.renameTo(segment))
+			throw new IOException("cannot rename " + file + " to " + segment);
+
+		compressor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				compress(segment);
+			}
+		});
+	}
+
+	private static void compress(File f)
+	{
+		File gz = new File(f.getPath() + ".gz");
+
+		try (InputStream is = new FileInputStream(f);
+				OutputStream os = new GZIPOutputStream(new FileOutputStream(gz), 65536))
+		{
+			byte[] buf = new byte[65536];
+			int n;
+
+			while ((n = is.read(buf)) > 0)
+			{
+				os.write(buf, 0, n);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return;
+		}
+
+		f.delete();
+	}
+
+	private static ThreadFactory daemon(final String name)
+	{
+		return new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
@@ -21,30 +21,41 @@
  package jacaboo;
 
 import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 import toools.text.LineStreamListener;
 
 public class ToStreamLineReceiver implements LineStreamListener
 {
-	private final PrintStream outputStream;
+	private final LogSink sink;
 	private final String prefix;
+	private final AtomicLong droppedLines = new AtomicLong();
 
 	ToStreamLineReceiver(PrintStream outputStream, String prefix)
 	{
-		this.outputStream = outputStream;
+		this(LogSink.of(outputStream), prefix);
+	}
+
+	ToStreamLineReceiver(LogSink sink, String prefix)
+	{
+		this.sink = sink;
 		this.prefix = prefix;
 	}
 
 	@Override
 	public void newLine(String line)
 	{
-		line.trim();
-
-		if (prefix != null)
+		if ( ! sink.append(prefix, line))
 		{
-			line = prefix + line;
+			droppedLines.incrementAndGet();
 		}
+	}
 
-		outputStream.println(line);
+	/**
+	 * @return the number of lines dropped because the sink was full
+	 */
+	public long getDroppedLineCount()
+	{
+		return droppedLines.get();
 	}
 }
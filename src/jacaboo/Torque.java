@@ -98,7 +98,7 @@ public class Torque extends ResourceManager
 	public String toString()
 	{
 		return "Torque using frontal node: "
-				+ getFrontal().getInetAddress().getHostName();
+				+ getFrontal().getName();
 	}
 
 	public void kill(String jobID) throws UnknownHostException
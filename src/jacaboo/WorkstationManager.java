@@ -27,6 +27,7 @@ public class WorkstationManager extends ResourceManager
 {
 
 	private final List<String> nodeNames = new ArrayList<>();
+	private LoadAwareSelector selector;
 
 	public WorkstationManager(String... nodes)
 	{
@@ -45,9 +46,28 @@ public class WorkstationManager extends ResourceManager
 		}
 	}
 
+	/**
+	 * Books the least loaded workstations instead of the first ones. Those
+	 * which do not answer in the given time are not booked.
+	 * 
+	 * @param deadlineMs
+	 *            the time given to the workstations to answer, or 0 to book
+	 *            in list order
+	 * @param username
+	 *            the login name the cluster will use on the workstations
+	 */
+	public void setLoadAwareSelection(long deadlineMs, String username)
+	{
+		selector = deadlineMs > 0
+				? new LoadAwareSelector(getFrontal(), username, deadlineMs) : null;
+	}
+
 	@Override
 	public NodeNameSet bookNodes(int nbNode, int ppc, int durationS, String... args)
 	{
+		if (selector != null)
+			return selector.select(nodeNames, nbNode);
+
 		NodeNameSet r = new NodeNameSet();
 
 		for (String n : nodeNames)